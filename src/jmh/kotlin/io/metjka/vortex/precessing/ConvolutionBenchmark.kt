@@ -0,0 +1,62 @@
+package io.metjka.vortex.precessing
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The convolution engines over kernels from 3 x 3 to 31 x 31. Gaussians are separable and take the two pass route,
+ * discs are not and go to the direct gather or, from [Convolution.FFT_THRESHOLD] taps on, the FFT.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class ConvolutionBenchmark {
+
+    @Param("gaussian3", "gaussian7", "disc7", "disc15", "disc31")
+    @JvmField
+    var kernelName: String = ""
+
+    lateinit var kernel: Kernel
+
+    @Setup
+    fun setUp() {
+        val size = kernelName.filter { it.isDigit() }.toInt()
+        kernel = if (kernelName.startsWith("gaussian")) gaussian(size) else disc(size)
+    }
+
+    @Benchmark
+    fun convolve(frames: Frames, pixels: Pixels): FastImage = pixels.count(Convolution(frames.image).convolve(kernel))
+
+    @Benchmark
+    fun tiled(frames: Frames, pixels: Pixels): FastImage = pixels.count(TileScheduler().convolve(frames.image, kernel))
+
+    @Benchmark
+    fun filtersBlur(frames: Frames, pixels: Pixels): IntArray {
+        pixels.pixels += frames.image.pixels.size
+        return Filters(frames.image).blur(kernel)
+    }
+
+    @Benchmark
+    fun meanBlur(frames: Frames, pixels: Pixels): FastImage =
+            pixels.count(Convolution.meanBlur(frames.image, kernel.with / 2))
+
+    private fun gaussian(size: Int): Kernel {
+        val row = FloatArray(size)
+        row[0] = 1f
+        for (i in 1..size - 1) {
+            for (j in i downTo 1) {
+                row[j] += row[j - 1]
+            }
+        }
+        return Kernel(size, size, FloatArray(size * size) { row[it % size] * row[it / size] })
+    }
+
+    private fun disc(size: Int): Kernel {
+        val radius = size / 2
+        return Kernel(size, size, FloatArray(size * size) {
+            val x = it % size - radius
+            val y = it / size - radius
+            if (x * x + y * y <= radius * radius) 1f else 0f
+        })
+    }
+}
@@ -0,0 +1,38 @@
+package io.metjka.vortex.precessing
+
+import org.openjdk.jmh.annotations.*
+import java.awt.Color
+import java.util.concurrent.TimeUnit
+
+/**
+ * Every pixelwise [Filter] on its own.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class FilterBenchmark {
+
+    @Benchmark
+    fun brightness(frames: Frames, pixels: Pixels): FastImage = pixels.count(BrightnessFilter(frames.image, 40).filter())
+
+    @Benchmark
+    fun contrast(frames: Frames, pixels: Pixels): FastImage = pixels.count(ContrastFilter(frames.image, 40).filter())
+
+    @Benchmark
+    fun gamma(frames: Frames, pixels: Pixels): FastImage = pixels.count(GammaFilter(frames.image, 2.2).filter())
+
+    @Benchmark
+    fun gray(frames: Frames, pixels: Pixels): FastImage = pixels.count(GrayFilter(frames.image).filter())
+
+    @Benchmark
+    fun invert(frames: Frames, pixels: Pixels): FastImage = pixels.count(InvertFilter(frames.image).filter())
+
+    @Benchmark
+    fun sepia(frames: Frames, pixels: Pixels): FastImage = pixels.count(SepiaFilter(frames.image).filter())
+
+    @Benchmark
+    fun mix(frames: Frames, pixels: Pixels): FastImage = pixels.count(Mix(frames.image, Color.ORANGE, 0.3f).filter())
+
+    @Benchmark
+    fun hueSaturationValue(frames: Frames, pixels: Pixels): FastImage =
+            pixels.count(HueSaturationValueFilter(frames.image).filter(30, 10, -10))
+}
@@ -0,0 +1,46 @@
+package io.metjka.vortex.precessing
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * A random frame of every [size] from 512 x 512 up to 8K, shared by the filter benchmarks.
+ */
+@State(Scope.Benchmark)
+open class Frames {
+
+    @Param("512x512", "1920x1080", "3840x2160", "7680x4320")
+    @JvmField
+    var size: String = ""
+
+    lateinit var image: FastImage
+
+    @Setup
+    fun setUp() {
+        val (width, height) = size.split("x").map { it.toInt() }
+        val random = ThreadLocalRandom.current()
+        image = FastImage(width, height, IntArray(width * height) { random.nextInt() or (0xFF shl 24) })
+    }
+}
+
+/**
+ * Counts the pixels a benchmark went through, reported next to the frames per second as pixels per second;
+ * 10^9 divided by that is the time per pixel in ns, comparable across sizes.
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+open class Pixels {
+
+    @JvmField
+    var pixels = 0L
+
+    @Setup(Level.Iteration)
+    fun reset() {
+        pixels = 0
+    }
+
+    fun count(image: FastImage): FastImage {
+        pixels += image.pixels.size
+        return image
+    }
+}
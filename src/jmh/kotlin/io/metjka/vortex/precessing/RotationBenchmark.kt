@@ -0,0 +1,24 @@
+package io.metjka.vortex.precessing
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Rotations by the right angles, which only move pixels, and by an arbitrary one, which resamples them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class RotationBenchmark {
+
+    @Param("90", "180", "30")
+    @JvmField
+    var angle: Int = 0
+
+    @Benchmark
+    fun rotate(frames: Frames, pixels: Pixels): FastImage = pixels.count(ImageRotation(frames.image).rotate(angle))
+
+    @Benchmark
+    fun rotateTiled(frames: Frames, pixels: Pixels): FastImage =
+            pixels.count(ImageRotation(frames.image, TileScheduler()).rotate(angle))
+}
@@ -0,0 +1,28 @@
+package io.metjka.vortex.precessing
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The filters that look at their neighbours: Sobel and the star field. Rotations are in [RotationBenchmark].
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+open class SpatialBenchmark {
+
+    @Benchmark
+    fun sobel(frames: Frames, pixels: Pixels): FastImage = pixels.count(SobelFilter(frames.image).gradient(false).magnitude)
+
+    @Benchmark
+    fun sobelTiled(frames: Frames, pixels: Pixels): FastImage =
+            pixels.count(SobelFilter(frames.image, TileScheduler()).gradient(false).magnitude)
+
+    @Benchmark
+    fun starfield(frames: Frames, pixels: Pixels): IntArray {
+        val star = Star(frames.image)
+        star.starfield(1000, 1, 3, 1, 4)
+        pixels.pixels += frames.image.pixels.size
+        return star.gray()
+    }
+}
@@ -0,0 +1,81 @@
+package io.metjka.vortex.precessing
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Column-major loops (how the filters used to walk images) against the shared row-major traversal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class TraversalBenchmark {
+
+    @Param("3840x2160", "7680x4320")
+    @JvmField
+    var size: String = ""
+
+    lateinit var image: FastImage
+
+    @Setup
+    fun setUp() {
+        val (width, height) = size.split("x").map { it.toInt() }
+        val random = ThreadLocalRandom.current()
+        image = FastImage(width, height, IntArray(width * height) { random.nextInt() })
+    }
+
+    @Benchmark
+    fun grayColumnMajor(): FastImage {
+        val result = FastImage(image.width, image.height)
+        for (x in 0..image.width - 1) {
+            for (y in 0..image.height - 1) {
+                result.setARGB(x, y, gray(image.getARGB(x, y)))
+            }
+        }
+        return result
+    }
+
+    @Benchmark
+    fun grayRowMajor(): FastImage = image.mapPixels { gray(it) }
+
+    @Benchmark
+    fun convolveColumnMajor(): IntArray {
+        val kernel = Convolution.GAUSSIAN3_BLUR
+        val width = image.width
+        val height = image.height
+        val array = IntArray(width * height)
+        for (x in 0..width - 1) {
+            for (y in 0..height - 1) {
+                var r = 0
+                var g = 0
+                var b = 0
+                val offsetX = x - kernel.with / 2 + width
+                val offsetY = y - kernel.height / 2 + height
+                for (filterX in 0..kernel.with - 1) {
+                    for (filterY in 0..kernel.height - 1) {
+                        val argb = image.getARGB((offsetX + filterX) % width, (offsetY + filterY) % height)
+                        val value = kernel.getValue(filterX, filterY)
+                        r += (argb.red() * value).toInt()
+                        g += (argb.green() * value).toInt()
+                        b += (argb.blue() * value).toInt()
+                    }
+                }
+                array[x + y * width] = rgb(
+                        (kernel.factor * r).toInt().clamp(),
+                        (kernel.factor * g).toInt().clamp(),
+                        (kernel.factor * b).toInt().clamp())
+            }
+        }
+        return array
+    }
+
+    @Benchmark
+    fun convolveRowMajor(): FastImage = Convolution(image).convolve(Convolution.GAUSSIAN3_BLUR)
+
+    private fun gray(argb: Int): Int {
+        val gray = ((argb.red() * 0.3).toInt() + (argb.green() * 0.59).toInt() + (argb.blue() * 0.11).toInt()).clamp()
+        return rgb(gray, gray, gray)
+    }
+
+}
@@ -0,0 +1,64 @@
+package io.metjka.vortex.ui.serialize
+
+import io.metjka.vortex.graph.Graph
+import io.metjka.vortex.graph.GraphBundle
+import io.metjka.vortex.graph.ImageNode
+import io.metjka.vortex.graph.NodeTypes
+import io.metjka.vortex.graph.SinkNode
+import io.metjka.vortex.graph.ValueNode
+import org.openjdk.jmh.annotations.*
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.TimeUnit
+
+/**
+ * Opening a saved chain of [nodes] filters, from the binary format and from JSON, up to a graph ready to evaluate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class LoadBenchmark {
+
+    @Param("100", "2000")
+    @JvmField
+    var nodes: Int = 0
+
+    lateinit var binary: ByteArray
+
+    lateinit var json: ByteArray
+
+    @Setup
+    fun setUp() {
+        val bundle = GraphBundle.toBundle(chain(nodes)) + mapOf(VortFormat.VERSION_NUMBER_LABEL to VortFormat.VERSION)
+        binary = ByteArrayOutputStream().also { BinaryFormat.write(bundle, it) }.toByteArray()
+        json = VortFormat.gson.toJson(bundle).toByteArray(Charsets.UTF_8)
+    }
+
+    @Benchmark
+    fun loadBinary(): Graph = GraphBundle.fromBundle(Importer.import(ByteArrayInputStream(binary))).first
+
+    @Benchmark
+    fun loadJson(): Graph = GraphBundle.fromBundle(Importer.import(ByteArrayInputStream(json))).first
+
+    /**
+     * Input, then alternating Brightness and Curve nodes, then Output.
+     */
+    private fun chain(size: Int): Graph {
+        val table = IntArray(256) { 255 - it }
+        val graph = Graph()
+        val input = NodeTypes.create("Input") as ValueNode<*>
+        graph.add(input)
+        var last = input.output
+        for (i in 1..size - 2) {
+            val node = (if (i % 2 == 0) NodeTypes.create("Curve", "table" to table)
+            else NodeTypes.create("Brightness", "value" to i % 50)) as ImageNode
+            graph.add(node)
+            graph.connect(last, node.input)
+            last = node.output
+        }
+        val output = NodeTypes.create("Output") as SinkNode<*>
+        graph.add(output)
+        graph.connect(last, output.input)
+        return graph
+    }
+}
@@ -0,0 +1,253 @@
+package io.metjka.vortex.batch
+
+import io.metjka.vortex.graph.GraphBundle
+import io.metjka.vortex.graph.GraphEvaluator
+import io.metjka.vortex.graph.SinkNode
+import io.metjka.vortex.graph.ValueNode
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.ui.serialize.Importer
+import mu.KotlinLogging
+import java.awt.image.BufferedImage
+import java.io.File
+import java.nio.file.FileSystems
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.stream.Stream
+import javax.imageio.ImageIO
+import kotlin.system.exitProcess
+
+/**
+ * Runs a saved graph (see [GraphBundle]) over many images without the UI. The graph's `Input` node gets each image,
+ * and what arrives in its image `Output` nodes is written to [outputDirectory] in [format], in the same folders
+ * below it as the image is below the root of the inputs. An image whose output would overwrite another's fails.
+ *
+ * Decoding and encoding run on [ioThreads] threads and the graph on [workers], each with its own copy of the graph,
+ * so one image is read while another is filtered and a third is written. At most [depth] images are on their way
+ * at any time, which is what bounds the memory, however many files there are.
+ */
+class BatchRunner(val bundle: Map<*, *>, val outputDirectory: File, val format: String = "png",
+                  val workers: Int = Runtime.getRuntime().availableProcessors(),
+                  val depth: Int = 2 * workers, val ioThreads: Int = 2) {
+
+    val log = KotlinLogging.logger { }
+
+    class Summary(val images: Int, val failed: Int, val pixels: Long, val nanos: Long) {
+
+        val imagesPerSecond: Double
+            get() = images * 1e9 / Math.max(1L, nanos)
+
+        val megapixelsPerSecond: Double
+            get() = pixels * 1e3 / Math.max(1L, nanos)
+
+        override fun toString(): String = "%d images (%d failed) in %.1f s: %.2f images/s, %.1f MP/s".format(
+                images, failed, nanos / 1e9, imagesPerSecond, megapixelsPerSecond)
+    }
+
+    /**
+     * @param base where the outputs go, with the sink's name and the format still to be added.
+     */
+    private class Frame(val file: File, val base: File, val image: FastImage,
+                        val outputs: List<Pair<String, FastImage>> = emptyList())
+
+    /**
+     * A copy of the graph for one thread: ports hold the values flowing through, so copies can't be shared.
+     */
+    private inner class Worker {
+        val graph = GraphBundle.fromBundle(bundle).first
+        val evaluator = GraphEvaluator(graph)
+        val input = graph.nodes.filterIsInstance<ValueNode<*>>().singleOrNull { it.recipe?.type == "Input" }
+                ?: throw IllegalArgumentException("The graph needs exactly one Input node")
+        val sinks = graph.nodes.filterIsInstance<SinkNode<*>>().filter { it.recipe?.type == "Output" }
+        val roots = graph.nodes.filter { graph.upstream(it).isEmpty() }
+
+        init {
+            require(sinks.isNotEmpty()) { "The graph has no Output node" }
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        fun process(frame: Frame): Frame {
+            (input as ValueNode<FastImage>).value = frame.image
+            roots.map { evaluator.evaluate(it) }.forEach { it.get() }
+            graph.nodes.firstOrNull { it.error != null }?.let { throw IllegalStateException("$it failed", it.error) }
+            return Frame(frame.file, frame.base, frame.image, sinks.mapNotNull { sink -> (sink.value as? FastImage)?.let { Pair(sink.name, it) } })
+        }
+    }
+
+    /**
+     * Processes every file in [files], in no particular order, and returns once the last one is written.
+     *
+     * @param root what the folders of the outputs mirror, see [root]; without one all outputs go straight into
+     * [outputDirectory].
+     * @throws IllegalArgumentException when the graph can't be loaded or has no `Input` or `Output` node, before
+     * any image is read.
+     */
+    fun run(files: Sequence<File>, root: File? = null): Summary {
+        // the first copy checks the graph once, up front, and then serves the first worker thread
+        val first = Worker()
+        val created = ConcurrentLinkedQueue<Worker>(listOf(first))
+        val spare = ConcurrentLinkedQueue<Worker>(listOf(first))
+        outputDirectory.mkdirs()
+        val io = pool(ioThreads, "batch-io")
+        val cpu = pool(workers, "batch-worker")
+        val local = ThreadLocal.withInitial { spare.poll() ?: Worker().also { created.add(it) } }
+        val permits = Semaphore(depth)
+        val images = AtomicInteger()
+        val failed = AtomicInteger()
+        val pixels = AtomicLong()
+        val written = ConcurrentHashMap.newKeySet<File>()
+        val start = System.nanoTime()
+        try {
+            for (file in files) {
+                permits.acquire()
+                CompletableFuture.supplyAsync({ Frame(file, base(file, root), decode(file)) }, io)
+                        .thenApplyAsync({ local.get().process(it) }, cpu)
+                        .thenApplyAsync({ encode(it, written) }, io)
+                        .whenComplete { count, e ->
+                            if (e == null) {
+                                images.incrementAndGet()
+                                pixels.addAndGet(count)
+                            } else {
+                                failed.incrementAndGet()
+                                log.warn(e.cause ?: e) { "Skipping $file" }
+                            }
+                            permits.release()
+                        }
+            }
+            permits.acquire(depth)
+        } finally {
+            io.shutdown()
+            cpu.shutdown()
+            created.forEach { it.evaluator.shutdown() }
+        }
+        return Summary(images.get(), failed.get(), pixels.get(), System.nanoTime() - start).also { log.info { it } }
+    }
+
+    private fun decode(file: File): FastImage {
+        val image = ImageIO.read(file) ?: throw IllegalArgumentException("$file is not an image ImageIO can read")
+        return FastImage(image)
+    }
+
+    /**
+     * [file]'s path below [root] under [outputDirectory], without the extension.
+     */
+    private fun base(file: File, root: File?): File {
+        val relative = root?.let { file.absoluteFile.normalize().relativeToOrNull(it.absoluteFile.normalize()) }
+        val folder = relative?.parentFile?.takeUnless { it.path.startsWith("..") }
+        return File(if (folder == null) outputDirectory else File(outputDirectory, folder.path), file.nameWithoutExtension)
+    }
+
+    /**
+     * @param written the outputs of this run so far, e.g. `a.png` for `a.jpg` when `a.png` is an input too.
+     * @return the pixels that went in, for the throughput.
+     */
+    private fun encode(frame: Frame, written: MutableSet<File>): Long {
+        val base = frame.base
+        base.parentFile.mkdirs()
+        for ((name, image) in frame.outputs) {
+            val target = File(base.parentFile, if (frame.outputs.size == 1) "${base.name}.$format" else "${base.name}-$name.$format")
+            if (!written.add(target.absoluteFile.normalize())) {
+                throw IllegalStateException("$target is already the output of another image")
+            }
+            if (!ImageIO.write(encodable(image), format, target)) {
+                throw IllegalArgumentException("No ImageIO writer for $format")
+            }
+        }
+        return frame.image.width.toLong() * frame.image.height
+    }
+
+    /**
+     * Formats without alpha get the pixels without it, since their writers refuse or garble ARGB.
+     */
+    private fun encodable(image: FastImage): BufferedImage {
+        if (format.toLowerCase() !in OPAQUE_FORMATS) {
+            return image.toBufferedImage()
+        }
+        val opaque = BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_RGB)
+        opaque.setRGB(0, 0, image.width, image.height, image.pixels, 0, image.width)
+        return opaque
+    }
+
+    private fun pool(threads: Int, name: String): ExecutorService {
+        val count = AtomicInteger()
+        return Executors.newFixedThreadPool(threads) { runnable ->
+            Thread(runnable, "$name-${count.incrementAndGet()}").apply { isDaemon = true }
+        }
+    }
+
+    companion object {
+
+        private val OPAQUE_FORMATS = setOf("jpg", "jpeg", "bmp", "wbmp")
+
+        /**
+         * Where the files [pattern] names are listed from: the directory itself, or the folders of a glob before its
+         * first wildcard.
+         */
+        fun root(pattern: String): Path {
+            val path = Paths.get(pattern)
+            if (Files.isDirectory(path)) {
+                return path
+            }
+            val glob = pattern.indexOfFirst { it in "*?[{" }
+            val prefix = if (glob < 0) pattern else pattern.substring(0, glob)
+            val base = prefix.substring(0, Math.max(0, prefix.lastIndexOfAny(charArrayOf('/', File.separatorChar))))
+            return when {
+                base.isNotEmpty() -> Paths.get(base)
+                prefix.startsWith("/") -> Paths.get("/")
+                else -> Paths.get(".")
+            }
+        }
+
+        /**
+         * The files [pattern] names, listed lazily: every image ImageIO can read in a directory, or the files
+         * matching a glob such as `photos/**/*.jpg`. Close the stream when done.
+         */
+        fun inputs(pattern: String): Stream<Path> {
+            val path = Paths.get(pattern)
+            if (Files.isDirectory(path)) {
+                val suffixes = ImageIO.getReaderFileSuffixes().map { it.toLowerCase() }.toSet()
+                return Files.list(path).filter { Files.isRegularFile(it) && it.toFile().extension.toLowerCase() in suffixes }
+            }
+            val matcher = FileSystems.getDefault().getPathMatcher("glob:$pattern")
+            return Files.walk(root(pattern)).filter { Files.isRegularFile(it) && matcher.matches(it.normalize()) }
+        }
+
+        @JvmStatic
+        fun main(args: Array<String>) {
+            val positional = mutableListOf<String>()
+            val options = HashMap<String, String>()
+            var i = 0
+            while (i < args.size) {
+                if (args[i].startsWith("--") && i + 1 < args.size) {
+                    options[args[i].substring(2)] = args[i + 1]
+                    i += 2
+                } else {
+                    positional.add(args[i++])
+                }
+            }
+            if (positional.size != 3) {
+                System.err.println("Usage: BatchRunner <graph.vort or graph.json> <image directory or glob> <output directory> " +
+                        "[--format png] [--workers N] [--depth N] [--io N]")
+                exitProcess(2)
+            }
+            val bundle = File(positional[0]).inputStream().use { Importer.import(it) }
+            val workers = options["workers"]?.toInt() ?: Runtime.getRuntime().availableProcessors()
+            val runner = BatchRunner(bundle, File(positional[2]), options["format"] ?: "png", workers,
+                    options["depth"]?.toInt() ?: 2 * workers, options["io"]?.toInt() ?: 2)
+            val summary = inputs(positional[1]).use { files ->
+                runner.run(files.iterator().asSequence().map { it.toFile() }, root(positional[1]).toFile())
+            }
+            println(summary)
+            exitProcess(if (summary.failed == 0) 0 else 1)
+        }
+    }
+}
@@ -0,0 +1,6 @@
+package io.metjka.vortex.graph
+
+class Edge(val from: OutputPort<*>, val to: InputPort<*>) {
+
+    override fun toString(): String = "$from -> $to"
+}
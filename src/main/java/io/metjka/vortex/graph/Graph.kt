@@ -0,0 +1,146 @@
+package io.metjka.vortex.graph
+
+import java.util.ArrayDeque
+
+/**
+ * Nodes and the edges between their ports. All methods are synchronized, so the UI can edit the graph
+ * while the evaluator walks it.
+ */
+class Graph {
+
+    private val nodeSet = linkedSetOf<GraphNode>()
+    private val edgeList = mutableListOf<Edge>()
+
+    val nodes: List<GraphNode>
+        @Synchronized get() = nodeSet.toList()
+
+    val edges: List<Edge>
+        @Synchronized get() = edgeList.toList()
+
+    @Synchronized
+    fun add(node: GraphNode) {
+        nodeSet.add(node)
+    }
+
+    /**
+     * Removes [node] together with every edge touching it.
+     */
+    @Synchronized
+    fun remove(node: GraphNode) {
+        edgeList.filter { it.from.node == node || it.to.node == node }.forEach { disconnect(it) }
+        nodeSet.remove(node)
+    }
+
+    /**
+     * Connects [from] to [to], replacing whatever [to] was connected to before.
+     *
+     * @throws IllegalArgumentException when the port types differ, a port belongs to a node outside this graph,
+     * or the edge would close a cycle.
+     */
+    @Synchronized
+    fun connect(from: OutputPort<*>, to: InputPort<*>): Edge {
+        if (from.type != to.type) {
+            throw IllegalArgumentException("Can't connect ${from.type} $from to ${to.type} $to")
+        }
+        if (wouldCycle(from, to)) {
+            throw IllegalArgumentException("Connecting $from to $to would create a cycle")
+        }
+        if (from.node !in nodeSet || to.node !in nodeSet) {
+            throw IllegalArgumentException("Both ends of $from -> $to must be part of the graph")
+        }
+        edgeInto(to)?.let { disconnect(it) }
+        val edge = Edge(from, to)
+        edgeList.add(edge)
+        to.source = from
+        return edge
+    }
+
+    @Synchronized
+    fun disconnect(edge: Edge) {
+        if (edgeList.remove(edge)) {
+            edge.to.source = null
+        }
+    }
+
+    @Synchronized
+    fun edgeInto(port: InputPort<*>): Edge? = edgeList.firstOrNull { it.to == port }
+
+    /**
+     * Nodes fed directly by one of [node]'s outputs, each listed once.
+     */
+    @Synchronized
+    fun downstream(node: GraphNode): List<GraphNode> =
+            edgeList.filter { it.from.node == node }.map { it.to.node }.distinct()
+
+    /**
+     * Whether an edge from [from] to [to] would let a node feed into itself.
+     */
+    @Synchronized
+    fun wouldCycle(from: OutputPort<*>, to: InputPort<*>): Boolean = from.node in reachableFrom(listOf(to.node))
+
+    /**
+     * [nodes] and every node downstream of them.
+     */
+    @Synchronized
+    fun reachableFrom(nodes: Collection<GraphNode>): Set<GraphNode> {
+        val reached = linkedSetOf<GraphNode>()
+        val queue = ArrayDeque(nodes)
+        while (queue.isNotEmpty()) {
+            val node = queue.poll()
+            if (reached.add(node)) {
+                queue.addAll(downstream(node))
+            }
+        }
+        return reached
+    }
+
+    /**
+     * [nodes] and every node upstream of them.
+     */
+    @Synchronized
+    fun reaching(nodes: Collection<GraphNode>): Set<GraphNode> {
+        val reached = linkedSetOf<GraphNode>()
+        val queue = ArrayDeque(nodes)
+        while (queue.isNotEmpty()) {
+            val node = queue.poll()
+            if (reached.add(node)) {
+                queue.addAll(upstream(node))
+            }
+        }
+        return reached
+    }
+
+    /**
+     * [nodes] ordered so that every node comes after all of its upstream nodes among them.
+     * Edges to nodes outside [nodes] are ignored.
+     */
+    @Synchronized
+    fun topologicalOrder(nodes: Collection<GraphNode>): List<GraphNode> {
+        val pending = HashMap<GraphNode, Int>()
+        for (node in nodes) {
+            pending[node] = upstream(node).count { it in nodes }
+        }
+        val ready = ArrayDeque(nodes.filter { pending[it] == 0 })
+        val order = mutableListOf<GraphNode>()
+        while (ready.isNotEmpty()) {
+            val node = ready.poll()
+            order.add(node)
+            for (next in downstream(node)) {
+                val left = pending[next] ?: continue
+                pending[next] = left - 1
+                if (left == 1) {
+                    ready.add(next)
+                }
+            }
+        }
+        check(order.size == pending.size) { "Graph has a cycle through ${pending.keys - order}" }
+        return order
+    }
+
+    /**
+     * Nodes feeding directly into one of [node]'s inputs, each listed once.
+     */
+    @Synchronized
+    fun upstream(node: GraphNode): List<GraphNode> =
+            edgeList.filter { it.to.node == node }.map { it.from.node }.distinct()
+}
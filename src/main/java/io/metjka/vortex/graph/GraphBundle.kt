@@ -0,0 +1,80 @@
+package io.metjka.vortex.graph
+
+/**
+ * A [Graph] as plain maps and lists, ready for JSON: every node by its recipe (see [NodeTypes.recipe]) and every edge
+ * by the nodes' positions in the node list and the port names.
+ */
+object GraphBundle {
+
+    const val NODES = "Nodes"
+    const val EDGES = "Edges"
+
+    const val ID = "id"
+    const val TYPE = "type"
+    const val PARAMETERS = "parameters"
+
+    /**
+     * @throws IllegalArgumentException for nodes that weren't made by [NodeTypes] and so can't be made again.
+     */
+    fun toBundle(graph: Graph): Map<String, Any> {
+        val nodes = graph.nodes
+        val ids = ids(graph)
+        return mapOf(
+                NODES to nodes.mapIndexed { id, node ->
+                    val recipe = NodeTypes.recipe(node) ?: throw IllegalArgumentException("$node can't be saved")
+                    mapOf(ID to id, TYPE to recipe.type, PARAMETERS to recipe.parameters)
+                },
+                EDGES to graph.edges.map {
+                    mapOf("from" to ids[it.from.node], "output" to it.from.name, "to" to ids[it.to.node], "input" to it.to.name)
+                })
+    }
+
+    /**
+     * The ids [toBundle] gives the nodes of [graph].
+     */
+    fun ids(graph: Graph): Map<GraphNode, Int> = graph.nodes.withIndex().associate { it.value to it.index }
+
+    /**
+     * The graph described by [bundle], and its nodes by id.
+     */
+    fun fromBundle(bundle: Map<*, *>): Pair<Graph, Map<Int, GraphNode>> {
+        val graph = Graph()
+        val nodes = nodes(bundle)
+        nodes.values.forEach { graph.add(it) }
+        connect(bundle, nodes) { output, input -> graph.connect(output, input) }
+        return Pair(graph, nodes)
+    }
+
+    /**
+     * Makes the nodes of [bundle], by id, without adding them to any graph.
+     */
+    fun nodes(bundle: Map<*, *>): Map<Int, GraphNode> {
+        val nodes = LinkedHashMap<Int, GraphNode>()
+        (bundle[NODES] as? List<*>).orEmpty().forEach {
+            val node = it as Map<*, *>
+            @Suppress("UNCHECKED_CAST")
+            val parameters = node[PARAMETERS] as? Map<String, Any?> ?: emptyMap()
+            nodes[(node[ID] as Number).toInt()] = NodeTypes.create(Recipe(node[TYPE] as String, parameters))
+        }
+        return nodes
+    }
+
+    /**
+     * Calls [connect] with the ports of every edge in [bundle] between [nodes].
+     */
+    fun connect(bundle: Map<*, *>, nodes: Map<Int, GraphNode>, connect: (OutputPort<*>, InputPort<*>) -> Unit) {
+        (bundle[EDGES] as? List<*>).orEmpty().forEach {
+            val edge = it as Map<*, *>
+            val from = node(nodes, edge["from"])
+            val to = node(nodes, edge["to"])
+            val output = from.outputs.firstOrNull { it.name == edge["output"] }
+                    ?: throw IllegalArgumentException("$from has no output ${edge["output"]}")
+            val input = to.inputs.firstOrNull { it.name == edge["input"] }
+                    ?: throw IllegalArgumentException("$to has no input ${edge["input"]}")
+            connect(output, input)
+        }
+    }
+
+    private fun node(nodes: Map<Int, GraphNode>, id: Any?): GraphNode =
+            nodes[(id as Number).toInt()] ?: throw IllegalArgumentException("No node $id")
+}
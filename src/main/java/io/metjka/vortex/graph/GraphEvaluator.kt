@@ -0,0 +1,439 @@
+package io.metjka.vortex.graph
+
+import io.metjka.vortex.jfr.Flight
+import io.metjka.vortex.precessing.CancellationToken
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.FramePool
+import io.metjka.vortex.precessing.Pipeline
+import io.metjka.vortex.precessing.TileScheduler
+import mu.KotlinLogging
+import java.awt.Rectangle
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs a [Graph] off the calling thread. [evaluate] marks a node and everything downstream of it dirty, and a pass
+ * on [executor] recomputes the dirty nodes in topological order, each exactly once, so a node below a diamond
+ * only runs after both of its branches are done. Changes that arrive before a pass starts are folded into it.
+ * Observers hear about each finished node on [callbackExecutor], e.g. `Executor { Platform.runLater(it) }` for the UI.
+ *
+ * Passes run one after another, so a node never sees a graph that another pass is half way through.
+ * Heavy nodes spread their own work, e.g. over a TileScheduler.
+ *
+ * With a [cache], nodes that declare their [GraphNode.parameters] are looked up before they run, and a hit
+ * skips [GraphNode.evaluate] entirely.
+ *
+ * Chains of pointwise nodes (an [ImageNode.op]) run as a single [Pipeline] stage, one pass over the frame for the
+ * whole chain. Frames only come out where something looks at them: the last node of a chain, or a node that is
+ * observed or feeds anything else. So a change anywhere in a chain reruns all of it, from the frame entering its
+ * first node, and graphs whose every node is observed, like the editor's, are never fused.
+ *
+ * Slider drags produce a change per pixel of movement, so a pass waits until no change has come for [debounceMillis],
+ * and a change that touches the running pass cancels it: the filters stop at their next row or tile
+ * (see [CancellationToken]) and the interrupted nodes are picked up again by the next pass. Only the latest
+ * value is ever computed to the end.
+ *
+ * With more than one of [levels], e.g. [PROGRESSIVE], a pass first runs the whole chain on proxies shrunk by each
+ * coarser level (see [GraphNode.level]) and reports every level as it finishes, so a preview is there within
+ * milliseconds and sharpens from there. Levels run coarse to fine, so a coarser result never replaces a finer one,
+ * and a newer edit drops whatever levels are left. Unchanged upstream nodes get their full frames back afterwards
+ * instead of being computed again.
+ *
+ * When a [SinkNode] only has part of its frame on screen (its [SinkNode.viewport]), the full resolution frame is
+ * first computed for that part alone: walking up from the sinks, every node is asked for the
+ * [GraphNode.requiredRegion] of the regions below it. The rest of the frames fills in right after, in the same pass.
+ *
+ * With a [pool], filters take their output frames from it, and an output port holds a reference on its frame.
+ * A replaced frame is released on [callbackExecutor], behind the callbacks that may still be showing it, so it is
+ * only reused once nothing downstream or on screen reads it any more.
+ *
+ * With [metrics], every node that runs is measured: wall and CPU time, allocations, pixels in and out and whether
+ * the cache had it, see [MetricsRegistry]. The same runs are Flight Recorder events once a recording enables them,
+ * see [Flight].
+ */
+class GraphEvaluator(val graph: Graph,
+                     val callbackExecutor: Executor = Executor { it.run() },
+                     val executor: ExecutorService = worker(),
+                     val cache: ResultCache? = null,
+                     val debounceMillis: Long = 0,
+                     val levels: IntArray = FULL,
+                     val pool: FramePool? = cache?.pool,
+                     val metrics: MetricsRegistry? = null) {
+
+    val log = KotlinLogging.logger { }
+
+    private val observers = ConcurrentHashMap<GraphNode, CopyOnWriteArrayList<(GraphNode) -> Unit>>()
+
+    private val lock = Any()
+
+    // the chains fused in the running pass, by their last node
+    private var fused: Map<GraphNode, List<ImageNode>> = emptyMap()
+
+    // everything below is guarded by dirty
+    private val dirty = linkedSetOf<GraphNode>()
+    private val waiting = mutableListOf<CompletableFuture<Void>>()
+    private var scheduled = false
+    // the timer of a pass that hasn't started yet
+    private var pending: ScheduledFuture<*>? = null
+    private var running: Set<GraphNode> = emptySet()
+    private var token: CancellationToken? = null
+
+    private val timer: ScheduledExecutorService? = if (debounceMillis > 0) timer() else null
+
+    init {
+        require(levels.isNotEmpty() && levels.last() == 1) { "Levels must end at full resolution: ${levels.toList()}" }
+    }
+
+    /**
+     * Calls [listener] on [callbackExecutor] every time [node] has been evaluated, whether it succeeded or not.
+     */
+    fun observe(node: GraphNode, listener: (GraphNode) -> Unit) {
+        observers.getOrPut(node) { CopyOnWriteArrayList() }.add(listener)
+    }
+
+    fun forget(node: GraphNode) {
+        observers.remove(node)
+        metrics?.forget(node)
+    }
+
+    /**
+     * Marks [node] dirty and schedules a pass, cancelling the running one if it covers [node] or anything below it.
+     * The returned future is done once no changes are left to compute.
+     */
+    fun evaluate(node: GraphNode): Future<*> {
+        val future = CompletableFuture<Void>()
+        val affected = graph.reachableFrom(listOf(node))
+        synchronized(dirty) {
+            dirty.add(node)
+            waiting.add(future)
+            if (affected.any { it in running }) {
+                token?.cancel()
+            }
+            if (timer == null) {
+                if (!scheduled) {
+                    scheduled = true
+                    executor.execute { pass() }
+                }
+            } else if (!scheduled || pending?.cancel(false) == true) {
+                // (re)start the wait; a timer that can't be cancelled any more has fired and the pass takes this change
+                scheduled = true
+                pending = timer.schedule(Runnable {
+                    synchronized(dirty) { pending = null }
+                    executor.execute { pass() }
+                }, debounceMillis, TimeUnit.MILLISECONDS)
+            }
+        }
+        return future
+    }
+
+    fun shutdown() {
+        timer?.shutdown()
+        executor.shutdown()
+    }
+
+    private fun pass() {
+        synchronized(lock) {
+            val pass = CancellationToken()
+            val id = metrics?.passStarted() ?: 0
+            var cancelled = false
+            val changed = synchronized(dirty) {
+                scheduled = false
+                dirty.toList().also { dirty.clear() }
+            }
+            val affected = graph.reachableFrom(changed)
+            // proxies need the whole chain, so that unchanged nodes upstream hand on proxies too
+            val order = graph.topologicalOrder(if (levels.size > 1) graph.reaching(affected) else affected)
+            fused = fusedRuns(order)
+            val inChains = fused.values.flatMap { it.dropLast(1) }.toSet()
+            val kept = order.filter { it !in affected }.associate { node -> node to node.outputs.map { Pair(it.value, it.digest) } }
+            kept.values.forEach { outputs -> outputs.forEach { retain(it.first) } }
+            synchronized(dirty) {
+                running = order.toSet()
+                token = pass
+            }
+
+            val stages = levels.dropLast(1).map { Stage(it, emptyMap()) } +
+                    listOfNotNull(regions(order.filter { it in affected })?.let { Stage(1, it) }) +
+                    Stage(1, emptyMap())
+
+            // nodes with their whole full resolution frame
+            val done = mutableSetOf<GraphNode>()
+            stages@ for (stage in stages) {
+                for (node in order) {
+                    val saved = kept[node]
+                    if (stage.level == 1 && saved != null) {
+                        if (node.level != 1) {
+                            restore(node, saved)
+                            notify(node)
+                        }
+                        continue
+                    }
+                    if (node in done) {
+                        continue
+                    }
+                    node.level = stage.level
+                    node.region = stage.regions[node]
+                    if (node in inChains) {
+                        // runs with the last node of its chain
+                        continue
+                    }
+                    if (pass.isCancelled || !run(node, pass, id)) {
+                        log.debug { "Pass cancelled at $node, level ${stage.level}, region ${node.region}" }
+                        cancelled = true
+                        kept.forEach { restore(it.key, it.value) }
+                        synchronized(dirty) {
+                            dirty.addAll(affected - done)
+                        }
+                        break@stages
+                    }
+                    if (stage.level == 1 && node.region == null) {
+                        done.add(node)
+                    }
+                }
+            }
+
+            kept.values.forEach { outputs -> outputs.forEach { releaseLater(it.first) } }
+            fused = emptyMap()
+            pool?.let { log.debug { "Frames: ${it.stats()}" } }
+            metrics?.passFinished(id, cancelled)
+
+            synchronized(dirty) {
+                running = emptySet()
+                token = null
+                if (dirty.isEmpty() && !scheduled) {
+                    waiting.forEach { it.complete(null) }
+                    waiting.clear()
+                }
+            }
+        }
+    }
+
+    /**
+     * What each of [nodes], closed downstream and in topological order, has to compute for the viewports of the sinks
+     * among them; `null` when there is no viewport to care about.
+     */
+    private fun regions(nodes: List<GraphNode>): Map<GraphNode, Rectangle?>? {
+        if (nodes.none { it is SinkNode<*> && it.viewport != null }) {
+            return null
+        }
+        val regions = HashMap<GraphNode, Rectangle?>()
+        for (node in nodes.asReversed()) {
+            val consumers = graph.downstream(node)
+            regions[node] = if (consumers.isEmpty()) {
+                (node as? SinkNode<*>)?.viewport
+            } else {
+                consumers.map { consumer -> regions[consumer]?.let { consumer.requiredRegion(it) } }
+                        .reduce { union, region -> if (union == null || region == null) null else union.union(region) }
+            }
+        }
+        return regions
+    }
+
+    /**
+     * @return false when the run was cancelled half way, in which case nothing is reported or cached.
+     */
+    private fun run(node: GraphNode, pass: CancellationToken, id: Long): Boolean {
+        val flight = Flight.nodeStarted()
+        val tiles = if (flight == null) 0 else TileScheduler.scheduledTiles()
+        // after the event, whose first use loads the recorder
+        val probe = metrics?.probe()
+        var cached: Boolean? = null
+        try {
+            pass.runWith {
+                cached = if (pool == null) compute(node) else pool.runWith { compute(node) }
+            }
+            node.error = null
+        } catch (e: CancellationException) {
+            return false
+        } catch (e: Exception) {
+            log.error(e) { "Evaluating $node failed" }
+            node.error = e
+        }
+        probe?.let { metrics?.record(node, id, it, cached, graph.upstream(fused[node]?.first() ?: node)) }
+        if (flight != null) {
+            val image = node.outputs.map { it.value }.filterIsInstance<FastImage>().firstOrNull()
+            Flight.nodeFinished(flight, node.javaClass.simpleName, node.name, node.level, image?.width ?: 0,
+                    image?.height ?: 0, TileScheduler.scheduledTiles() - tiles, cached == true, node.error != null)
+        }
+        notify(node)
+        return true
+    }
+
+    private fun notify(node: GraphNode) {
+        observers[node]?.forEach { listener -> callbackExecutor.execute { listener(node) } }
+    }
+
+    private fun restore(node: GraphNode, outputs: List<Pair<Any?, ResultCache.Digest?>>) {
+        node.level = 1
+        node.region = null
+        node.outputs.forEachIndexed { i, output ->
+            handOver(output.value, outputs[i].first)
+            output.assign(outputs[i].first)
+            output.digest = outputs[i].second
+        }
+    }
+
+    /**
+     * @return whether the outputs came from the cache, `null` for a node that can't be cached.
+     */
+    private fun compute(node: GraphNode): Boolean? {
+        fused[node]?.let { return computeChain(it) }
+        val previous = node.outputs.map { it.value }
+        // digests only matter to the cache, and hashing a frame costs as much as a simple filter
+        val parameters = if (cache == null) null else node.parameters()
+        val cached = if (parameters == null) {
+            node.evaluate()
+            if (cache != null) {
+                node.outputs.forEach { it.digest = ResultCache.contentDigest(it.value) }
+            }
+            null
+        } else {
+            computeCached(node, parameters)
+        }
+        node.outputs.forEachIndexed { i, output -> handOver(previous[i], output.value) }
+        return cached
+    }
+
+    private fun computeCached(node: GraphNode, parameters: List<Any?>): Boolean {
+        val key = ResultCache.Key(type(node), parameters + node.level + node.region, node.inputs.map { it.digest })
+        val cached = cache?.get(key)
+        if (cached != null) {
+            node.outputs.forEachIndexed { i, output -> output.assign(cached[i]) }
+        } else {
+            node.evaluate()
+            cache?.put(key, node.outputs.map { it.value })
+        }
+        node.outputs.forEachIndexed { i, output -> output.digest = key.output(i) }
+        return cached != null
+    }
+
+    /**
+     * Runs [chain] as one [Pipeline] stage, from the frame going into its first node to the one coming out of its last.
+     * The nodes before the last get the digests they would have had on their own, but no frames.
+     */
+    private fun computeChain(chain: List<ImageNode>): Boolean? {
+        val last = chain.last()
+        val previous = chain.map { it.output.value }
+        var key: ResultCache.Key? = null
+        var digest = chain.first().input.digest
+        for (node in chain) {
+            node.level = last.level
+            node.region = last.region
+            if (cache != null) {
+                val nodeKey = ResultCache.Key(type(node), node.parameters()!! + node.level + node.region, listOf(digest))
+                digest = nodeKey.output(0)
+                node.output.digest = digest
+                key = nodeKey
+            }
+        }
+
+        val cached = key?.let { cache?.get(it) }
+        if (cached != null) {
+            last.output.assign(cached[0])
+        } else {
+            val pipeline = Pipeline.Builder().apply { chain.forEach { pixels(it.op!!) } }.build()
+            last.output.value = last.compute(chain.first().input.value) { pipeline.run(it) }
+            key?.let { cache?.put(it, listOf(last.output.value)) }
+        }
+        chain.dropLast(1).forEach { it.output.value = null }
+        chain.forEachIndexed { i, node -> handOver(previous[i], node.output.value) }
+        return if (key == null) null else cached != null
+    }
+
+    /**
+     * The chains of pointwise nodes among [nodes], in topological order, that run as one [Pipeline] stage, by their
+     * last node.
+     */
+    private fun fusedRuns(nodes: List<GraphNode>): Map<GraphNode, List<ImageNode>> {
+        val runs = HashMap<GraphNode, List<ImageNode>>()
+        for (node in nodes) {
+            if (node !is ImageNode || !pointwise(node) || inner(node)) {
+                continue
+            }
+            val chain = mutableListOf(node)
+            var previous = node.input.source?.node
+            while (previous is ImageNode && pointwise(previous) && inner(previous)) {
+                chain.add(previous)
+                previous = previous.input.source?.node
+            }
+            if (chain.size > 1) {
+                runs[node] = chain.asReversed()
+            }
+        }
+        return runs
+    }
+
+    /**
+     * Without a key a node's frame would have to be hashed, so only keyed nodes are fused when there is a cache.
+     */
+    private fun pointwise(node: ImageNode): Boolean = node.op != null && (cache == null || node.key != null)
+
+    /**
+     * Whether nothing but the next pointwise node ever looks at the frame of [node].
+     */
+    private fun inner(node: GraphNode): Boolean {
+        if (observers[node]?.isNotEmpty() == true) {
+            return false
+        }
+        val consumer = graph.downstream(node).singleOrNull()
+        return consumer is ImageNode && pointwise(consumer)
+    }
+
+    private fun type(node: GraphNode): String = node.javaClass.name + ":" + node.name
+
+    /**
+     * Moves a port's reference from [previous] to [value].
+     */
+    private fun handOver(previous: Any?, value: Any?) {
+        if (previous !== value) {
+            retain(value)
+            releaseLater(previous)
+        }
+    }
+
+    private fun retain(value: Any?) {
+        (value as? FastImage)?.let { pool?.retain(it) }
+    }
+
+    private fun releaseLater(value: Any?) {
+        val image = value as? FastImage ?: return
+        pool?.let { callbackExecutor.execute { it.release(image) } }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun <T> OutputPort<T>.assign(value: Any?) {
+        this.value = value as T?
+    }
+
+    /**
+     * One sweep over the pass's nodes at [level], computing only the [regions] given for them.
+     */
+    private class Stage(val level: Int, val regions: Map<GraphNode, Rectangle?>)
+
+    companion object {
+
+        val FULL = intArrayOf(1)
+
+        /**
+         * 1/8, 1/4 and 1/2 proxies before the full frame.
+         */
+        val PROGRESSIVE = intArrayOf(8, 4, 2, 1)
+
+        private fun worker(): ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "graph-evaluator").apply { isDaemon = true }
+        }
+
+        private fun timer(): ScheduledExecutorService = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "graph-debounce").apply { isDaemon = true }
+        }
+    }
+}
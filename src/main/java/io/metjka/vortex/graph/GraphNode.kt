@@ -0,0 +1,76 @@
+package io.metjka.vortex.graph
+
+import io.metjka.vortex.ui.Type
+import java.awt.Rectangle
+
+/**
+ * A unit of work in a [Graph]: reads its [inputs], computes, and writes its [outputs].
+ * Nodes know nothing about JavaFX; the blocks on screen only display them.
+ */
+abstract class GraphNode(val name: String) {
+
+    private val inputList = mutableListOf<InputPort<*>>()
+    private val outputList = mutableListOf<OutputPort<*>>()
+
+    val inputs: List<InputPort<*>>
+        get() = inputList
+
+    val outputs: List<OutputPort<*>>
+        get() = outputList
+
+    /**
+     * What went wrong the last time this node was evaluated, `null` if it went fine.
+     */
+    @Volatile
+    var error: Throwable? = null
+        internal set
+
+    /**
+     * The resolution this node is being evaluated at, as a divisor: 1 for full frames, 8 for a 1/8 preview proxy.
+     * Image sources shrink their images accordingly and size-dependent filters scale their kernels.
+     */
+    @Volatile
+    var level: Int = 1
+        internal set
+
+    /**
+     * The part of the output frame that is needed this time, in full resolution pixels, or `null` for all of it.
+     * Image nodes that can compute a part only do so and leave the rest of the frame empty; the evaluator
+     * asks for the whole frame afterwards.
+     */
+    @Volatile
+    var region: Rectangle? = null
+        internal set
+
+    /**
+     * What [NodeTypes] made this node from, `null` for nodes made directly, which can't be saved.
+     */
+    var recipe: Recipe? = null
+        internal set
+
+    /**
+     * The part of the input frames needed to compute [region] of the output, `null` for all of it.
+     * The default suits pointwise nodes, which need exactly the same pixels.
+     */
+    open fun requiredRegion(region: Rectangle): Rectangle? = region
+
+    protected fun <T> input(name: String, type: Type): InputPort<T> =
+            InputPort<T>(this, name, type).also { inputList.add(it) }
+
+    protected fun <T> output(name: String, type: Type): OutputPort<T> =
+            OutputPort<T>(this, name, type).also { outputList.add(it) }
+
+    /**
+     * Everything besides the inputs that decides the outputs, as values with a proper `equals` that
+     * [ResultCache.digest] can encode, or `null` when the outputs can't be cached. Nodes are uncacheable unless
+     * they say otherwise.
+     */
+    open fun parameters(): List<Any?>? = null
+
+    /**
+     * Recomputes the outputs from the current inputs. Runs on the evaluator's worker, never on the FX thread.
+     */
+    abstract fun evaluate()
+
+    override fun toString(): String = name
+}
@@ -0,0 +1,337 @@
+package io.metjka.vortex.graph
+
+import com.google.gson.GsonBuilder
+import io.metjka.vortex.precessing.FastImage
+import java.awt.Rectangle
+import java.io.File
+import java.io.Writer
+import java.lang.management.ManagementFactory
+import java.util.ArrayDeque
+import java.util.IdentityHashMap
+import javax.management.ObjectName
+
+/**
+ * One evaluation of [node] in pass number [pass], as measured by the [GraphEvaluator].
+ *
+ * [cpuNanos] and [allocatedBytes] are those of the evaluator's thread: work a node spreads over a TileScheduler
+ * shows up in [wallNanos] only, so a wall time far above the CPU time means the node ran in parallel (or waited).
+ *
+ * @param cached `true` for a cache hit, `false` for a miss, `null` for nodes that can't be cached.
+ */
+class NodeRun(val node: GraphNode, val pass: Long, val level: Int, val region: Rectangle?, val thread: Thread,
+              val startNanos: Long, val wallNanos: Long, val cpuNanos: Long, val allocatedBytes: Long,
+              val inputPixels: Long, val outputPixels: Long, val cached: Boolean?, val failed: Boolean,
+              val upstream: List<GraphNode>) {
+
+    override fun toString(): String =
+            "$node level=$level wall=${wallNanos / 1000}us cpu=${cpuNanos / 1000}us allocated=$allocatedBytes " +
+                    "pixels=$inputPixels->$outputPixels cached=$cached"
+}
+
+/**
+ * What the runs of one node add up to.
+ */
+class NodeStats(val node: GraphNode, val runs: Long, val wallNanos: Long, val cpuNanos: Long, val allocatedBytes: Long,
+                val inputPixels: Long, val outputPixels: Long, val hits: Long, val misses: Long, val last: NodeRun?) {
+
+    /**
+     * Wall time per output pixel over the runs that computed something, the figure to compare across frame sizes.
+     */
+    val nanosPerPixel: Double
+        get() = if (outputPixels == 0L) 0.0 else wallNanos.toDouble() / outputPixels
+
+    override fun toString(): String =
+            "$node runs=$runs wall=${wallNanos / 1000}us cpu=${cpuNanos / 1000}us allocated=$allocatedBytes " +
+                    "pixels=$inputPixels->$outputPixels ns/pixel=${"%.2f".format(nanosPerPixel)} hits=$hits misses=$misses"
+}
+
+/**
+ * The JMX face of [MetricsRegistry], under [MetricsRegistry.OBJECT_NAME].
+ */
+interface MetricsRegistryMBean {
+
+    val passes: Long
+
+    val evaluations: Long
+
+    val wallMillis: Double
+
+    val allocatedBytes: Long
+
+    /**
+     * A line per node, slowest first.
+     */
+    val nodes: Array<String>
+
+    fun reset()
+
+    /**
+     * Writes the timeline to [path], see [MetricsRegistry.writeTrace].
+     */
+    fun exportTrace(path: String)
+}
+
+/**
+ * Collects a [NodeRun] for every node a [GraphEvaluator] evaluates, totals them per node and keeps the last
+ * [timelineSize] runs and passes as a timeline that [writeTrace] exports for `chrome://tracing`.
+ */
+class MetricsRegistry(val timelineSize: Int = TIMELINE_SIZE) : MetricsRegistryMBean {
+
+    private class Pass(val id: Long, val thread: Thread, val startNanos: Long, var endNanos: Long, var cancelled: Boolean)
+
+    /**
+     * The counters at the start of a run.
+     */
+    internal class Probe(val startNanos: Long, val cpuNanos: Long, val allocatedBytes: Long)
+
+    private class Totals {
+        var runs = 0L
+        var wallNanos = 0L
+        var cpuNanos = 0L
+        var allocatedBytes = 0L
+        var inputPixels = 0L
+        var outputPixels = 0L
+        var hits = 0L
+        var misses = 0L
+        var last: NodeRun? = null
+    }
+
+    private val threads = ManagementFactory.getThreadMXBean()
+    private val allocations = threads as? com.sun.management.ThreadMXBean
+    private val measureCpu = threads.isCurrentThreadCpuTimeSupported && threads.isThreadCpuTimeEnabled
+    private val measureAllocations = allocations != null && allocations.isThreadAllocatedMemorySupported &&
+            allocations.isThreadAllocatedMemoryEnabled
+
+    private val origin = System.nanoTime()
+
+    // everything below is guarded by this
+    private val totals = IdentityHashMap<GraphNode, Totals>()
+    private val timeline = ArrayDeque<NodeRun>()
+    private val passList = ArrayDeque<Pass>()
+    private var passCount = 0L
+
+    private var registered: ObjectName? = null
+
+    @Synchronized
+    internal fun passStarted(): Long {
+        passCount++
+        passList.addLast(Pass(passCount, Thread.currentThread(), System.nanoTime(), 0, false))
+        trim(passList)
+        return passCount
+    }
+
+    @Synchronized
+    internal fun passFinished(id: Long, cancelled: Boolean) {
+        passList.lastOrNull { it.id == id }?.let {
+            it.endNanos = System.nanoTime()
+            it.cancelled = cancelled
+        }
+    }
+
+    internal fun probe(): Probe = Probe(System.nanoTime(),
+            if (measureCpu) threads.currentThreadCpuTime else 0,
+            if (measureAllocations) allocations!!.getThreadAllocatedBytes(Thread.currentThread().id) else 0)
+
+    /**
+     * Records a finished run of [node] that started at [probe].
+     */
+    internal fun record(node: GraphNode, pass: Long, probe: Probe, cached: Boolean?, upstream: List<GraphNode>) {
+        val end = probe()
+        val run = NodeRun(node, pass, node.level, node.region, Thread.currentThread(), probe.startNanos,
+                end.startNanos - probe.startNanos, end.cpuNanos - probe.cpuNanos, end.allocatedBytes - probe.allocatedBytes,
+                node.inputs.fold(0L) { sum, port -> sum + pixels(port.value) },
+                node.outputs.fold(0L) { sum, port -> sum + pixels(port.value) },
+                cached, node.error != null, upstream)
+        record(run)
+    }
+
+    @Synchronized
+    fun record(run: NodeRun) {
+        totals.getOrPut(run.node) { Totals() }.apply {
+            runs++
+            wallNanos += run.wallNanos
+            cpuNanos += run.cpuNanos
+            allocatedBytes += run.allocatedBytes
+            inputPixels += run.inputPixels
+            outputPixels += run.outputPixels
+            if (run.cached == true) {
+                hits++
+            } else if (run.cached == false) {
+                misses++
+            }
+            last = run
+        }
+        timeline.addLast(run)
+        trim(timeline)
+    }
+
+    @Synchronized
+    fun stats(node: GraphNode): NodeStats? = totals[node]?.let { stats(node, it) }
+
+    /**
+     * Every node seen so far, slowest first.
+     */
+    @Synchronized
+    fun stats(): List<NodeStats> = totals.map { stats(it.key, it.value) }.sortedByDescending { it.wallNanos }
+
+    /**
+     * The runs still on the timeline, oldest first.
+     */
+    @Synchronized
+    fun runs(): List<NodeRun> = timeline.toList()
+
+    /**
+     * The chain of runs in [pass] with the longest total wall time, from a source down, following the inputs of each
+     * node. This is what bounds the pass however much the rest is sped up.
+     */
+    @Synchronized
+    fun criticalPath(pass: Long): List<NodeRun> {
+        val runs = timeline.filter { it.pass == pass }
+        // the longest chain ending in each run, and the run before it on that chain
+        val length = IdentityHashMap<NodeRun, Long>()
+        val previous = IdentityHashMap<NodeRun, NodeRun>()
+        val latest = IdentityHashMap<GraphNode, NodeRun>()
+        var end: NodeRun? = null
+        for (run in runs) {
+            var before: NodeRun? = null
+            for (input in run.upstream) {
+                val candidate = latest[input] ?: continue
+                if (before == null || length[candidate]!! > length[before]!!) {
+                    before = candidate
+                }
+            }
+            length[run] = run.wallNanos + (before?.let { length[it]!! } ?: 0)
+            before?.let { previous[run] = it }
+            latest[run.node] = run
+            if (end == null || length[run]!! > length[end]!!) {
+                end = run
+            }
+        }
+        var run = end
+        val path = mutableListOf<NodeRun>()
+        while (run != null) {
+            path.add(run)
+            run = previous[run]
+        }
+        return path.asReversed()
+    }
+
+    /**
+     * Drops everything recorded about [node], including the runs that name it as upstream, so that a node removed
+     * from the graph isn't kept alive by its metrics.
+     */
+    @Synchronized
+    fun forget(node: GraphNode) {
+        totals.remove(node)
+        timeline.removeIf { it.node === node || it.upstream.any { it === node } }
+        totals.values.forEach { if (it.last?.upstream?.any { it === node } == true) it.last = null }
+    }
+
+    @Synchronized
+    override fun reset() {
+        totals.clear()
+        timeline.clear()
+        passList.clear()
+    }
+
+    /**
+     * Writes the timeline in the Chrome trace event format, for `chrome://tracing` or Perfetto: a span per pass
+     * and, inside it, per node run, with the critical path of each pass highlighted.
+     */
+    fun writeTrace(writer: Writer) {
+        val (runs, spans) = synchronized(this) { Pair(timeline.toList(), passList.toList()) }
+        val critical = spans.flatMap { criticalPath(it.id) }.toSet()
+        val events = mutableListOf<Map<String, Any?>>()
+        (runs.map { it.thread } + spans.map { it.thread }).distinct().forEach { thread ->
+            events.add(mapOf("name" to "thread_name", "ph" to "M", "pid" to 1, "tid" to thread.id,
+                    "args" to mapOf("name" to thread.name)))
+        }
+        spans.filter { it.endNanos != 0L }.forEach { pass ->
+            events.add(mapOf("name" to if (pass.cancelled) "pass ${pass.id} (cancelled)" else "pass ${pass.id}",
+                    "cat" to "pass", "ph" to "X", "pid" to 1, "tid" to pass.thread.id,
+                    "ts" to micros(pass.startNanos), "dur" to (pass.endNanos - pass.startNanos) / 1000.0))
+        }
+        runs.forEach { run ->
+            val event = mutableMapOf<String, Any?>("name" to run.node.name, "cat" to "node", "ph" to "X", "pid" to 1,
+                    "tid" to run.thread.id, "ts" to micros(run.startNanos), "dur" to run.wallNanos / 1000.0,
+                    "args" to mapOf("pass" to run.pass, "level" to run.level, "region" to run.region?.let {
+                        "${it.x},${it.y} ${it.width}x${it.height}"
+                    }, "cpuMicros" to run.cpuNanos / 1000.0, "allocatedBytes" to run.allocatedBytes,
+                            "inputPixels" to run.inputPixels, "outputPixels" to run.outputPixels,
+                            "cached" to run.cached, "failed" to run.failed,
+                            "inputs" to run.upstream.map { it.name }))
+            if (run in critical) {
+                event["cname"] = "terrible"
+            }
+            events.add(event)
+        }
+        GsonBuilder().create().toJson(mapOf("traceEvents" to events, "displayTimeUnit" to "ms"), writer)
+        writer.flush()
+    }
+
+    override fun exportTrace(path: String) {
+        File(path).bufferedWriter().use { writeTrace(it) }
+    }
+
+    /**
+     * Publishes this registry on the platform MBean server, replacing whatever was registered under [name].
+     */
+    fun register(name: String = OBJECT_NAME) {
+        val server = ManagementFactory.getPlatformMBeanServer()
+        val objectName = ObjectName(name)
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName)
+        }
+        server.registerMBean(this, objectName)
+        registered = objectName
+    }
+
+    fun unregister() {
+        registered?.let {
+            val server = ManagementFactory.getPlatformMBeanServer()
+            if (server.isRegistered(it)) {
+                server.unregisterMBean(it)
+            }
+        }
+        registered = null
+    }
+
+    override val passes: Long
+        @Synchronized get() = passCount
+
+    override val evaluations: Long
+        @Synchronized get() = totals.values.fold(0L) { sum, it -> sum + it.runs }
+
+    override val wallMillis: Double
+        @Synchronized get() = totals.values.fold(0L) { sum, it -> sum + it.wallNanos } / 1e6
+
+    override val allocatedBytes: Long
+        @Synchronized get() = totals.values.fold(0L) { sum, it -> sum + it.allocatedBytes }
+
+    override val nodes: Array<String>
+        get() = stats().map { it.toString() }.toTypedArray()
+
+    private fun stats(node: GraphNode, totals: Totals): NodeStats = with(totals) {
+        NodeStats(node, runs, wallNanos, cpuNanos, allocatedBytes, inputPixels, outputPixels, hits, misses, last)
+    }
+
+    private fun <T> trim(deque: ArrayDeque<T>) {
+        while (deque.size > timelineSize) {
+            deque.removeFirst()
+        }
+    }
+
+    private fun micros(nanos: Long): Double = (nanos - origin) / 1000.0
+
+    private fun pixels(value: Any?): Long = (value as? FastImage)?.let { it.width.toLong() * it.height } ?: 0
+
+    companion object {
+
+        /**
+         * Enough for a few hundred passes over a graph of a dozen nodes.
+         */
+        const val TIMELINE_SIZE = 4096
+
+        const val OBJECT_NAME = "io.metjka.vortex:type=GraphMetrics"
+    }
+}
@@ -0,0 +1,143 @@
+package io.metjka.vortex.graph
+
+import io.metjka.vortex.precessing.Convolution
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.GrayOp
+import io.metjka.vortex.precessing.HueSaturationValueOp
+import io.metjka.vortex.precessing.Kernel
+import io.metjka.vortex.precessing.MixOp
+import io.metjka.vortex.precessing.PixelOp
+import io.metjka.vortex.precessing.PointOp
+import io.metjka.vortex.precessing.SepiaOp
+import io.metjka.vortex.precessing.SobelFilter
+import io.metjka.vortex.ui.Type
+import java.awt.Color
+
+/**
+ * How a node was made: its [type] in [NodeTypes] and the settings it was made with, all of them plain values
+ * (numbers, strings, lists and maps of those, and int or float arrays for tables and kernels) so that saved graphs
+ * can hold them. Numbers may come back from a file as any [Number], arrays as lists.
+ */
+data class Recipe(val type: String, val parameters: Map<String, Any?> = emptyMap()) {
+
+    fun int(name: String, default: Int = 0): Int = (parameters[name] as? Number)?.toInt() ?: default
+
+    fun double(name: String, default: Double = 0.0): Double = (parameters[name] as? Number)?.toDouble() ?: default
+
+    fun string(name: String, default: String): String = parameters[name] as? String ?: default
+
+    fun floats(name: String): FloatArray {
+        val value = parameters[name]
+        return when (value) {
+            is FloatArray -> value
+            is List<*> -> value.map { (it as Number).toFloat() }.toFloatArray()
+            else -> FloatArray(0)
+        }
+    }
+
+    fun ints(name: String): IntArray {
+        val value = parameters[name]
+        return when (value) {
+            is IntArray -> value
+            is List<*> -> value.map { (it as Number).toInt() }.toIntArray()
+            else -> IntArray(0)
+        }
+    }
+
+    // arrays compare by identity, which would make every loaded recipe a new cache key
+    override fun equals(other: Any?): Boolean =
+            other is Recipe && type == other.type && comparable() == other.comparable()
+
+    override fun hashCode(): Int = type.hashCode() * 31 + comparable().hashCode()
+
+    private fun comparable(): Map<String, Any?> = parameters.mapValues {
+        val value = it.value
+        when (value) {
+            is FloatArray -> value.toList()
+            is IntArray -> value.toList()
+            else -> value
+        }
+    }
+}
+
+/**
+ * The nodes a saved graph can contain, by type name. Each one is made from a [Recipe], which the node keeps
+ * as its [GraphNode.recipe] so the graph can be saved again. Nodes whose settings change after they are made
+ * register how to read them back, see [recipe].
+ */
+object NodeTypes {
+
+    private class Entry(val factory: (Recipe) -> GraphNode, val describe: ((GraphNode) -> Map<String, Any?>)?)
+
+    private val entries = LinkedHashMap<String, Entry>()
+
+    init {
+        register("Input") { ValueNode<FastImage>(Type.IMAGE) }
+        register("Number", describe = { mapOf("value" to (it as ValueNode<*>).value) }) {
+            ValueNode<Number>(Type.NUMBER, it.double("value"))
+        }
+        register("Add") { AddNode() }
+        register("Output") { SinkNode<FastImage>(Type.IMAGE, it.string("name", "Result")) }
+        register("Result") { SinkNode<Number>(Type.NUMBER) }
+        register("Brightness") { pointwise(it, PointOp.brightness(it.int("value"))) }
+        register("Contrast") { pointwise(it, PointOp.contrast(it.int("value"))) }
+        register("Gamma") { pointwise(it, PointOp.gamma(it.double("gamma", 1.0))) }
+        register("Gray") { pointwise(it, GrayOp) }
+        register("Invert") { pointwise(it, PointOp.INVERT) }
+        register("Sepia") { pointwise(it, SepiaOp) }
+        register("Mix") { pointwise(it, MixOp(Color(it.int("color"), true), it.double("ratio").toFloat())) }
+        register("HueSaturationValue") {
+            pointwise(it, HueSaturationValueOp(it.int("hue"), it.int("saturation"), it.int("value")))
+        }
+        register("Curve") { recipe ->
+            val table = recipe.ints("table")
+            require(table.size == 256) { "A curve needs 256 entries, got ${table.size}" }
+            pointwise(recipe, PointOp.of { table[it] })
+        }
+        register("Sobel") { recipe ->
+            ImageNode(recipe.type, recipe, 1) { SobelFilter(it).gradient(false).magnitude }
+        }
+        register("Blur") { recipe ->
+            val sigma = recipe.double("sigma", 1.0)
+            // the halo is in full resolution pixels, regions are only asked for at level 1
+            ImageNode(recipe.type, recipe, Math.ceil(3 * sigma).toInt()) { Convolution.stackedGaussianBlur(it, sigma / level) }
+        }
+        register("Convolution") {
+            ConvolutionNode(Kernel(it.int("width"), it.int("height"), it.floats("kernel")))
+        }
+        register("Rotation") { RotationNode(it.double("degrees")) }
+    }
+
+    /**
+     * Adds or replaces [type].
+     *
+     * @param describe the current settings of a node of this type, for nodes that can be edited after they are made.
+     */
+    fun register(type: String, describe: ((GraphNode) -> Map<String, Any?>)? = null, factory: (Recipe) -> GraphNode) {
+        synchronized(entries) {
+            entries[type] = Entry(factory, describe)
+        }
+    }
+
+    val types: Set<String>
+        get() = synchronized(entries) { entries.keys.toSet() }
+
+    fun create(recipe: Recipe): GraphNode {
+        val entry = synchronized(entries) { entries[recipe.type] }
+                ?: throw IllegalArgumentException("Unknown node type ${recipe.type}")
+        return entry.factory(recipe).also { it.recipe = recipe }
+    }
+
+    /**
+     * What makes [node] again as it is now, `null` for nodes that weren't made here.
+     */
+    fun recipe(node: GraphNode): Recipe? {
+        val recipe = node.recipe ?: return null
+        val describe = synchronized(entries) { entries[recipe.type]?.describe } ?: return recipe
+        return recipe.copy(parameters = recipe.parameters + describe(node))
+    }
+
+    fun create(type: String, vararg parameters: Pair<String, Any?>): GraphNode = create(Recipe(type, mapOf(*parameters)))
+
+    private fun pointwise(recipe: Recipe, op: PixelOp): GraphNode = ImageNode(recipe.type, recipe, op)
+}
@@ -0,0 +1,188 @@
+package io.metjka.vortex.graph
+
+import io.metjka.vortex.precessing.Convolution
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.ImageRotation
+import io.metjka.vortex.precessing.Kernel
+import io.metjka.vortex.precessing.PixelOp
+import io.metjka.vortex.precessing.cut
+import io.metjka.vortex.precessing.downsample
+import io.metjka.vortex.precessing.grow
+import io.metjka.vortex.precessing.newFrame
+import io.metjka.vortex.precessing.paste
+import io.metjka.vortex.precessing.wrapRegion
+import io.metjka.vortex.ui.Type
+import java.awt.Rectangle
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A constant typed in by the user. Images are handed on shrunk to the [level] being evaluated.
+ */
+class ValueNode<T>(type: Type, value: T? = null) : GraphNode("Value") {
+
+    val output = output<T>("value", type)
+
+    private val source = SOURCES.incrementAndGet()
+    private val version = AtomicLong()
+
+    /**
+     * Every image assigned here counts as a new one for the cache, without its pixels being hashed.
+     */
+    @Volatile
+    var value: T? = value
+        set(value) {
+            field = value
+            version.incrementAndGet()
+        }
+
+    // digesting a multi-megapixel frame on every proxy level would cost more than the proxies save
+    override fun parameters(): List<Any?>? {
+        val value = value
+        return if (value is FastImage) listOf(source, version.get()) else listOf(value)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    override fun evaluate() {
+        val value = value
+        output.value = if (value is FastImage) value.downsample(level) as T else value
+    }
+
+    companion object {
+        private val SOURCES = AtomicLong()
+    }
+}
+
+/**
+ * Sum of two numbers, `null` until both are there.
+ */
+class AddNode : GraphNode("Math") {
+
+    val left = input<Number>("left", Type.NUMBER)
+    val right = input<Number>("right", Type.NUMBER)
+    val sum = output<Number>("sum", Type.NUMBER)
+
+    override fun parameters(): List<Any?>? = emptyList()
+
+    override fun evaluate() {
+        val a = left.value
+        val b = right.value
+        sum.value = if (a != null && b != null) a.toInt() + b.toInt() else null
+    }
+}
+
+/**
+ * End of a chain, whatever arrives here is what gets shown.
+ */
+class SinkNode<T>(type: Type, name: String = "Result") : GraphNode(name) {
+
+    val input = input<T>("input", type)
+
+    val value: T?
+        get() = input.value
+
+    /**
+     * The part of the frame on screen, `null` when all of it is. The evaluator computes this part first
+     * and fills in the rest afterwards.
+     */
+    @Volatile
+    var viewport: Rectangle? = null
+
+    override fun evaluate() {
+    }
+}
+
+/**
+ * Runs [transform] over the incoming image, e.g. `ImageNode("Sobel") { SobelFilter(it).gradient(false).magnitude }`.
+ * [transform] runs on the node, so size-dependent ones can scale to the [level] of a proxy.
+ *
+ * @param key what [transform] depends on besides the image, e.g. `listOf("brightness", 10)`; without one the node
+ * is not cached.
+ * @param halo how far [transform] looks at neighbours, 0 for pointwise ones, e.g. 1 for Sobel. With a halo the node
+ * computes just its [region], wrapping around the edges; without one [transform] always gets the whole image.
+ */
+class ImageNode(name: String, val key: Any? = null, val halo: Int? = null,
+                val transform: ImageNode.(FastImage) -> FastImage) : GraphNode(name) {
+
+    val input = input<FastImage>("image", Type.IMAGE)
+    val output = output<FastImage>("image", Type.IMAGE)
+
+    /**
+     * What a pointwise node does to each pixel, `null` for other nodes. The evaluator runs chains of these as one pass.
+     */
+    var op: PixelOp? = null
+        private set
+
+    constructor(name: String, key: Any?, op: PixelOp) : this(name, key, 0, { op.filter(it) }) {
+        this.op = op
+    }
+
+    override fun parameters(): List<Any?>? = key?.let { listOf(it) }
+
+    override fun requiredRegion(region: Rectangle): Rectangle? = halo?.let { grow(region, it) }
+
+    override fun evaluate() {
+        output.value = compute(input.value) { transform(it) }
+    }
+
+    /**
+     * Runs [filter] over [image], or over the part of it the [region] needs when the node has a halo.
+     */
+    internal fun compute(image: FastImage?, filter: (FastImage) -> FastImage): FastImage? {
+        val region = region
+        return if (image == null || region == null || halo == null) {
+            image?.let(filter)
+        } else {
+            val part = image.wrapRegion(region)
+            newFrame(image.width, image.height).also { it.paste(filter(image.cut(part, halo)), part, halo) }
+        }
+    }
+}
+
+/**
+ * Convolves the incoming image with [kernel], rescaled to the [level] being evaluated so that previews
+ * are blurred (or sharpened) as much as the full frame.
+ */
+class ConvolutionNode(val kernel: Kernel) : GraphNode("Convolution") {
+
+    val input = input<FastImage>("image", Type.IMAGE)
+    val output = output<FastImage>("image", Type.IMAGE)
+
+    override fun parameters(): List<Any?>? = listOf(kernel.with, kernel.height, kernel.array.toList())
+
+    override fun requiredRegion(region: Rectangle): Rectangle? = grow(region, kernel.with / 2, kernel.height / 2)
+
+    override fun evaluate() {
+        output.value = input.value?.let { image ->
+            Convolution(image).convolve(kernel.rescale(1.0 / level), region?.let { image.wrapRegion(it) } ?: image.bounds())
+        }
+    }
+}
+
+/**
+ * Turns the incoming image by [degrees] onto a canvas that fits it, see [ImageRotation.rotate].
+ */
+class RotationNode(val degrees: Double) : GraphNode("Rotation") {
+
+    val input = input<FastImage>("image", Type.IMAGE)
+    val output = output<FastImage>("image", Type.IMAGE)
+
+    override fun parameters(): List<Any?>? = listOf(degrees)
+
+    /**
+     * Maps [region] back through the turn, sized after the frame of the previous pass; without one yet, or when its
+     * size changes on the way, the whole frame gets computed anyway once the region is done.
+     */
+    override fun requiredRegion(region: Rectangle): Rectangle? =
+            input.value?.let { ImageRotation.sourceRegion(it.width, it.height, degrees, region) }
+
+    override fun evaluate() {
+        output.value = input.value?.let { image ->
+            val region = region
+            if (region == null && degrees % 90 == 0.0) {
+                ImageRotation(image).rotate(degrees.toInt())
+            } else {
+                ImageRotation(image).rotate(degrees, ImageRotation.Sampling.BILINEAR, region)
+            }
+        }
+    }
+}
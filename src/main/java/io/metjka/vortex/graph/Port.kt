@@ -0,0 +1,49 @@
+package io.metjka.vortex.graph
+
+import io.metjka.vortex.ui.Type
+
+/**
+ * A typed connection point of a [GraphNode]. Only ports of the same [type] can be connected.
+ */
+abstract class Port<T>(val node: GraphNode, val name: String, val type: Type) {
+
+    abstract val value: T?
+
+    override fun toString(): String = "${node.name}.$name"
+}
+
+/**
+ * Reads the value of the [OutputPort] it is connected to, if any.
+ */
+class InputPort<T>(node: GraphNode, name: String, type: Type) : Port<T>(node, name, type) {
+
+    @Volatile
+    var source: OutputPort<*>? = null
+        internal set
+
+    @Suppress("UNCHECKED_CAST")
+    override val value: T?
+        get() = source?.value as T?
+
+    val isConnected: Boolean
+        get() = source != null
+
+    val digest: ResultCache.Digest?
+        get() = source?.digest
+}
+
+/**
+ * Holds the last value its node produced. Written by the evaluator's worker, read from anywhere.
+ */
+class OutputPort<T>(node: GraphNode, name: String, type: Type) : Port<T>(node, name, type) {
+
+    @Volatile
+    override var value: T? = null
+
+    /**
+     * Identifies [value] for the [ResultCache]: equal digests mean the same value.
+     */
+    @Volatile
+    var digest: ResultCache.Digest? = null
+        internal set
+}
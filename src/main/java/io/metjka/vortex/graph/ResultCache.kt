@@ -0,0 +1,460 @@
+package io.metjka.vortex.graph
+
+import io.metjka.vortex.jfr.Flight
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.FramePool
+import mu.KotlinLogging
+import java.awt.Rectangle
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.Arrays
+import java.util.LinkedHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Memoized node outputs, keyed on what decides them: the node's type, its [GraphNode.parameters] and the digests of
+ * the values on its inputs. Output digests are derived from the key in turn, so a whole unchanged subgraph hits the
+ * cache without hashing a single pixel again.
+ *
+ * Entries are kept in least recently used order within [budgetBytes]. Evicted images go to [spillDirectory] when one
+ * is given and come back from there on the next hit; everything else is simply dropped. The files are written on
+ * [spillExecutor], so `get` and `put` never wait for the disk, and are themselves kept in least recently used order
+ * within [spillBudgetBytes].
+ *
+ * With a [pool], the cache holds a reference on the frames it keeps and releases it when they leave, or once they
+ * are on disk.
+ */
+class ResultCache(val budgetBytes: Long = DEFAULT_BUDGET, val spillDirectory: File? = null,
+                  val pool: FramePool? = null,
+                  val spillBudgetBytes: Long = DEFAULT_SPILL_BUDGET,
+                  val spillExecutor: Executor = spiller()) {
+
+    val log = KotlinLogging.logger { }
+
+    /**
+     * A SHA-256 standing for a value, see [digest]. Two values with the same digest are taken to be the same.
+     */
+    class Digest internal constructor(private val bytes: ByteArray) {
+
+        override fun equals(other: Any?): Boolean = other is Digest && bytes.contentEquals(other.bytes)
+
+        override fun hashCode(): Int = Arrays.hashCode(bytes)
+
+        override fun toString(): String = bytes.joinToString("") { String.format("%02x", it) }
+    }
+
+    data class Key(val type: String, val parameters: List<Any?>, val inputs: List<Digest?>) {
+
+        /**
+         * All of this key, for the digests of the outputs and the spill file name.
+         */
+        val digest: Digest = digest(type, parameters, inputs)
+
+        /**
+         * The digest of output number [index] of the node this key is for.
+         */
+        fun output(index: Int): Digest = digest(digest, index)
+    }
+
+    class Stats(val hits: Long, val misses: Long, val evictions: Long, val spills: Long, val diskHits: Long,
+                val entries: Int, val bytes: Long, val spilledBytes: Long) {
+
+        override fun toString(): String = "hits=$hits misses=$misses evictions=$evictions spills=$spills " +
+                "diskHits=$diskHits entries=$entries bytes=$bytes spilledBytes=$spilledBytes"
+    }
+
+    private class Entry(val outputs: List<Any?>, val bytes: Long)
+
+    private class Spill(val file: File, val bytes: Long)
+
+    // everything below is guarded by this
+    private val entries = LinkedHashMap<Key, Entry>(16, 0.75f, true)
+    // evicted entries on their way to disk, still served from memory
+    private val writing = HashMap<Key, Entry>()
+    private val spilled = LinkedHashMap<Key, Spill>(16, 0.75f, true)
+    private var bytes = 0L
+    private var spilledBytes = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+    private val spills = AtomicLong()
+    private val diskHits = AtomicLong()
+    private val spillFiles = AtomicLong()
+
+    init {
+        spillDirectory?.mkdirs()
+    }
+
+    /**
+     * The outputs stored under [key], from memory or from disk, or `null` on a miss.
+     */
+    fun get(key: Key): List<Any?>? {
+        val spill = synchronized(this) {
+            val entry = entries[key] ?: writing[key]
+            if (entry != null) {
+                hits.incrementAndGet()
+                if (key !in entries) {
+                    put(key, entry.outputs)
+                }
+                return entry.outputs
+            }
+            spilled.remove(key)?.also { spilledBytes -= it.bytes }
+        }
+        if (spill != null) {
+            // off the lock, like the writes
+            val outputs = try {
+                read(spill.file)
+            } catch (e: Exception) {
+                log.warn(e) { "Dropping unreadable spill file ${spill.file}" }
+                null
+            } finally {
+                spill.file.delete()
+            }
+            if (outputs != null) {
+                hits.incrementAndGet()
+                diskHits.incrementAndGet()
+                put(key, outputs)
+                return outputs
+            }
+        }
+        misses.incrementAndGet()
+        return null
+    }
+
+    @Synchronized
+    fun put(key: Key, outputs: List<Any?>) {
+        val size = outputs.sumByLong { sizeOf(it) }
+        if (size > budgetBytes) {
+            return
+        }
+        outputs.forEach { (it as? FastImage)?.let { pool?.retain(it) } }
+        entries.remove(key)?.let { drop(it) }
+        writing.remove(key)
+        spilled.remove(key)?.let {
+            spilledBytes -= it.bytes
+            it.file.delete()
+        }
+        entries[key] = Entry(outputs, size)
+        bytes += size
+        while (bytes > budgetBytes) {
+            val eldest = entries.entries.iterator().next()
+            entries.remove(eldest.key)
+            evictions.incrementAndGet()
+            bytes -= eldest.value.bytes
+            val spilling = spill(eldest.key, eldest.value)
+            Flight.cacheEvicted(eldest.key.type, eldest.value.bytes, spilling)
+            if (!spilling) {
+                release(eldest.value)
+            }
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.values.forEach { drop(it) }
+        entries.clear()
+        bytes = 0
+        // the writes still running delete their files and release their frames when they see they were dropped
+        writing.clear()
+        spilled.values.forEach { it.file.delete() }
+        spilled.clear()
+        spilledBytes = 0
+    }
+
+    @Synchronized
+    fun stats(): Stats =
+            Stats(hits.get(), misses.get(), evictions.get(), spills.get(), diskHits.get(), entries.size, bytes, spilledBytes)
+
+    private fun drop(entry: Entry) {
+        bytes -= entry.bytes
+        release(entry)
+    }
+
+    private fun release(entry: Entry) {
+        entry.outputs.forEach { (it as? FastImage)?.let { pool?.release(it) } }
+    }
+
+    /**
+     * Queues [entry], which keeps its frames until it is written, for [spillExecutor].
+     *
+     * @return whether [entry] is on its way to disk.
+     */
+    private fun spill(key: Key, entry: Entry): Boolean {
+        if (spillDirectory == null || entry.bytes > spillBudgetBytes ||
+                entry.outputs.any { it != null && it !is FastImage }) {
+            return false
+        }
+        writing[key] = entry
+        // a file per write, since the same key can be on its way to disk twice
+        val file = File(spillDirectory, "${key.digest}-${spillFiles.incrementAndGet()}.frames")
+        spillExecutor.execute { write(key, entry, file) }
+        return true
+    }
+
+    private fun write(key: Key, entry: Entry, file: File) {
+        var written = try {
+            write(file, entry.outputs)
+            true
+        } catch (e: Exception) {
+            log.warn(e) { "Could not spill to $file" }
+            false
+        }
+        synchronized(this) {
+            // a hit or a clear in the meantime takes the entry back
+            if (writing[key] !== entry) {
+                written = false
+            } else {
+                writing.remove(key)
+            }
+            if (written) {
+                spilled[key] = Spill(file, entry.bytes)
+                spilledBytes += entry.bytes
+                spills.incrementAndGet()
+                while (spilledBytes > spillBudgetBytes) {
+                    val eldest = spilled.entries.iterator().next()
+                    spilled.remove(eldest.key)
+                    spilledBytes -= eldest.value.bytes
+                    eldest.value.file.delete()
+                }
+            }
+        }
+        if (!written) {
+            file.delete()
+        }
+        release(entry)
+    }
+
+    /**
+     * Layout: output count, then per output its width and height (-1 for null) followed by the packed pixels.
+     */
+    private fun write(file: File, outputs: List<Any?>) {
+        RandomAccessFile(file, "rw").use { raf ->
+            val channel = raf.channel
+            channel.truncate(0)
+            val header = ByteBuffer.allocate(4)
+            header.putInt(outputs.size).flip()
+            channel.write(header)
+            for (output in outputs) {
+                val image = output as FastImage?
+                val buffer = ByteBuffer.allocate(8 + (image?.pixels?.size ?: 0) * 4)
+                buffer.putInt(image?.width ?: -1).putInt(image?.height ?: -1)
+                image?.let { buffer.asIntBuffer().put(it.pixels) }
+                buffer.rewind()
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer)
+                }
+            }
+        }
+    }
+
+    private fun read(file: File): List<Any?> = RandomAccessFile(file, "r").use { raf ->
+        val buffer = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+        val count = buffer.getInt()
+        List(count) {
+            val width = buffer.getInt()
+            val height = buffer.getInt()
+            if (width < 0) {
+                null
+            } else {
+                val pixels = IntArray(width * height)
+                buffer.asIntBuffer().get(pixels)
+                buffer.position(buffer.position() + pixels.size * 4)
+                FastImage(width, height, pixels)
+            }
+        }
+    }
+
+    companion object {
+
+        /**
+         * 2 GB, room for about sixty 4K frames.
+         */
+        const val DEFAULT_BUDGET = 2L shl 30
+
+        /**
+         * 8 GB of spilled frames.
+         */
+        const val DEFAULT_SPILL_BUDGET = 8L shl 30
+
+        // looked up once: the first lookup loads the security providers
+        private val SHA_256 = MessageDigest.getInstance("SHA-256")
+
+        /**
+         * SHA-256 over a canonical encoding of [values]: the class and contents of each, maps in key order. Unlike
+         * `hashCode`, different parameters practically never end up the same.
+         *
+         * @throws IllegalArgumentException for values other than numbers, booleans, strings, enums, digests,
+         * rectangles, images, recipes, pairs, arrays, lists and maps of those.
+         */
+        fun digest(vararg values: Any?): Digest {
+            val encoder = Encoder(SHA_256.clone() as MessageDigest)
+            values.forEach { encoder.value(it) }
+            return Digest(encoder.sha.digest())
+        }
+
+        /**
+         * Digest of a value entering the graph from outside. Images are digested by their pixels.
+         */
+        fun contentDigest(value: Any?): Digest = digest(value)
+
+        fun sizeOf(value: Any?): Long = when (value) {
+            null -> 0L
+            is FastImage -> 16L + value.pixels.size * 4L
+            else -> 16L
+        }
+
+        private fun spiller(): Executor = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "result-cache-spill").apply { isDaemon = true }
+        }
+    }
+}
+
+private const val CHUNK = 64 * 1024
+
+/**
+ * Feeds values to [sha], each behind a tag for its kind so that e.g. `1`, `1L` and `"1"` differ.
+ */
+private class Encoder(val sha: MessageDigest) {
+
+    private val buffer = ByteBuffer.allocate(CHUNK)
+
+    fun value(value: Any?) {
+        when (value) {
+            null -> tag('0')
+            is Boolean -> {
+                tag('Z')
+                sha.update(if (value) 1.toByte() else 0.toByte())
+            }
+            is Byte, is Short, is Int -> {
+                tag('I')
+                long((value as Number).toLong())
+            }
+            is Long -> {
+                tag('J')
+                long(value)
+            }
+            is Float -> {
+                tag('F')
+                long(java.lang.Float.floatToRawIntBits(value).toLong())
+            }
+            is Double -> {
+                tag('D')
+                long(java.lang.Double.doubleToRawLongBits(value))
+            }
+            is String -> string(value)
+            is Enum<*> -> {
+                tag('E')
+                string(value.javaClass.name)
+                string(value.name)
+            }
+            is ResultCache.Digest -> {
+                tag('H')
+                string(value.toString())
+            }
+            is Rectangle -> {
+                tag('R')
+                listOf(value.x, value.y, value.width, value.height).forEach { long(it.toLong()) }
+            }
+            is FastImage -> {
+                tag('P')
+                long(value.width.toLong())
+                long(value.height.toLong())
+                ints(value.pixels)
+            }
+            is Recipe -> {
+                tag('C')
+                string(value.type)
+                value(value.parameters)
+            }
+            is Pair<*, *> -> {
+                tag('2')
+                value(value.first)
+                value(value.second)
+            }
+            is IntArray -> {
+                tag('i')
+                ints(value)
+            }
+            is FloatArray -> {
+                tag('f')
+                long(value.size.toLong())
+                value.forEach { long(java.lang.Float.floatToRawIntBits(it).toLong()) }
+            }
+            is DoubleArray -> {
+                tag('d')
+                long(value.size.toLong())
+                value.forEach { long(java.lang.Double.doubleToRawLongBits(it)) }
+            }
+            is LongArray -> {
+                tag('j')
+                long(value.size.toLong())
+                value.forEach { long(it) }
+            }
+            is ByteArray -> {
+                tag('b')
+                long(value.size.toLong())
+                sha.update(value)
+            }
+            is Array<*> -> list(value.asList())
+            is List<*> -> list(value)
+            is Map<*, *> -> {
+                tag('M')
+                long(value.size.toLong())
+                value.entries.sortedBy { it.key.toString() }.forEach {
+                    value(it.key)
+                    value(it.value)
+                }
+            }
+            else -> throw IllegalArgumentException("Can't digest ${value.javaClass.name}")
+        }
+    }
+
+    private fun list(values: List<*>) {
+        tag('L')
+        long(values.size.toLong())
+        values.forEach { value(it) }
+    }
+
+    private fun tag(tag: Char) {
+        sha.update(tag.toByte())
+    }
+
+    private fun long(value: Long) {
+        buffer.clear()
+        buffer.putLong(value)
+        sha.update(buffer.array(), 0, 8)
+    }
+
+    private fun string(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        tag('S')
+        long(bytes.size.toLong())
+        sha.update(bytes)
+    }
+
+    private fun ints(values: IntArray) {
+        long(values.size.toLong())
+        var offset = 0
+        while (offset < values.size) {
+            val count = Math.min(CHUNK / 4, values.size - offset)
+            buffer.clear()
+            buffer.asIntBuffer().put(values, offset, count)
+            sha.update(buffer.array(), 0, count * 4)
+            offset += count
+        }
+    }
+}
+
+private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+    var sum = 0L
+    for (element in this) {
+        sum += selector(element)
+    }
+    return sum
+}
@@ -0,0 +1,25 @@
+package io.metjka.vortex.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * An entry pushed out of the result cache.
+ */
+@Name("io.metjka.vortex.CacheEviction")
+@Label("Cache Eviction")
+@Category({"VORT", "Graph"})
+@Enabled(false)
+@StackTrace(false)
+class CacheEvictionEvent extends Event {
+
+    @Label("Node Type")
+    String type;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Spilled")
+    @Description("Whether the entry went to disk rather than being dropped")
+    boolean spilled;
+}
@@ -0,0 +1,134 @@
+package io.metjka.vortex.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Java Flight Recorder events for graph evaluation, the frame pool, the result cache and preview uploads.
+ * <p>
+ * All of them are disabled unless a recording turns them on, e.g. with {@code vort.jfc}:
+ * {@code -XX:StartFlightRecording=settings=/path/to/vort.jfc,filename=vort.jfr}. Until then every method here is a
+ * check of a flag and returns, without allocating. On a JVM without {@code jdk.jfr} they never do anything.
+ * <p>
+ * Duration events are started with one method, which returns {@code null} when the event is off, and ended with another.
+ */
+public final class Flight {
+
+    /**
+     * Whether this JVM has Flight Recorder events at all: OpenJDK 8u262 and later do.
+     */
+    public static final boolean AVAILABLE = available();
+
+    private Flight() {
+    }
+
+    public static Object nodeStarted() {
+        if (!AVAILABLE || !Types.NODE.isEnabled()) {
+            return null;
+        }
+        NodeEvaluationEvent event = new NodeEvaluationEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends what {@link #nodeStarted()} returned, doing nothing for {@code null}.
+     */
+    public static void nodeFinished(Object started, String type, String node, int level, int width, int height,
+                                    long tiles, boolean cached, boolean failed) {
+        if (started == null) {
+            return;
+        }
+        NodeEvaluationEvent event = (NodeEvaluationEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.type = type;
+            event.node = node;
+            event.level = level;
+            event.width = width;
+            event.height = height;
+            event.tiles = tiles;
+            event.cached = cached;
+            event.failed = failed;
+            event.commit();
+        }
+    }
+
+    public static void frameAcquired(int width, int height, boolean recycled, long pooledBytes) {
+        if (!AVAILABLE || !Types.FRAME_ACQUIRE.isEnabled()) {
+            return;
+        }
+        FrameAcquireEvent event = new FrameAcquireEvent();
+        event.width = width;
+        event.height = height;
+        event.recycled = recycled;
+        event.pooledBytes = pooledBytes;
+        event.commit();
+    }
+
+    public static void frameReleased(long bytes, boolean pooled) {
+        if (!AVAILABLE || !Types.FRAME_RELEASE.isEnabled()) {
+            return;
+        }
+        FrameReleaseEvent event = new FrameReleaseEvent();
+        event.bytes = bytes;
+        event.pooled = pooled;
+        event.commit();
+    }
+
+    public static void cacheEvicted(String type, long bytes, boolean spilled) {
+        if (!AVAILABLE || !Types.CACHE_EVICTION.isEnabled()) {
+            return;
+        }
+        CacheEvictionEvent event = new CacheEvictionEvent();
+        event.type = type;
+        event.bytes = bytes;
+        event.spilled = spilled;
+        event.commit();
+    }
+
+    public static Object uploadStarted() {
+        if (!AVAILABLE || !Types.PREVIEW_UPLOAD.isEnabled()) {
+            return null;
+        }
+        PreviewUploadEvent event = new PreviewUploadEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void uploadFinished(Object started, int width, int height, int uploadedTiles, int tiles,
+                                      long skippedFrames) {
+        if (started == null) {
+            return;
+        }
+        PreviewUploadEvent event = (PreviewUploadEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.uploadedTiles = uploadedTiles;
+            event.tiles = tiles;
+            event.skippedFrames = skippedFrames;
+            event.commit();
+        }
+    }
+
+    private static boolean available() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Flight.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Only loaded once {@link #AVAILABLE} said yes.
+     */
+    private static final class Types {
+        static final EventType NODE = EventType.getEventType(NodeEvaluationEvent.class);
+        static final EventType FRAME_ACQUIRE = EventType.getEventType(FrameAcquireEvent.class);
+        static final EventType FRAME_RELEASE = EventType.getEventType(FrameReleaseEvent.class);
+        static final EventType CACHE_EVICTION = EventType.getEventType(CacheEvictionEvent.class);
+        static final EventType PREVIEW_UPLOAD = EventType.getEventType(PreviewUploadEvent.class);
+    }
+}
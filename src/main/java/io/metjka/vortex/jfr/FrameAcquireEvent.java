@@ -0,0 +1,28 @@
+package io.metjka.vortex.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A frame handed out by the frame pool.
+ */
+@Name("io.metjka.vortex.FrameAcquire")
+@Label("Frame Acquire")
+@Category({"VORT", "Frame Pool"})
+@Enabled(false)
+@StackTrace(false)
+class FrameAcquireEvent extends Event {
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Recycled")
+    @Description("Whether the pixels came from the pool rather than a new allocation")
+    boolean recycled;
+
+    @Label("Pooled")
+    @DataAmount
+    long pooledBytes;
+}
@@ -0,0 +1,22 @@
+package io.metjka.vortex.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * The last reference on a frame dropped, putting its pixels back into the pool or, over budget, dropping them.
+ */
+@Name("io.metjka.vortex.FrameRelease")
+@Label("Frame Release")
+@Category({"VORT", "Frame Pool"})
+@Enabled(false)
+@StackTrace(false)
+class FrameReleaseEvent extends Event {
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Pooled")
+    @Description("Whether the pixels went back into the pool, false when over budget")
+    boolean pooled;
+}
@@ -0,0 +1,42 @@
+package io.metjka.vortex.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * One node evaluated by the graph evaluator, from start to end.
+ */
+@Name("io.metjka.vortex.NodeEvaluation")
+@Label("Node Evaluation")
+@Category({"VORT", "Graph"})
+@Description("A graph node computing its outputs")
+@Enabled(false)
+@StackTrace(false)
+class NodeEvaluationEvent extends Event {
+
+    @Label("Node Type")
+    String type;
+
+    @Label("Node")
+    String node;
+
+    @Label("Level")
+    @Description("Resolution divisor, 1 for full frames")
+    int level;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Tiles")
+    @Description("Tiles handed to the tile scheduler while the node ran")
+    long tiles;
+
+    @Label("Cached")
+    @Description("Whether the outputs came from the result cache")
+    boolean cached;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,30 @@
+package io.metjka.vortex.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A frame written into a preview on the FX thread.
+ */
+@Name("io.metjka.vortex.PreviewUpload")
+@Label("Preview Upload")
+@Category({"VORT", "UI"})
+@Enabled(false)
+@StackTrace(false)
+class PreviewUploadEvent extends Event {
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Uploaded Tiles")
+    int uploadedTiles;
+
+    @Label("Tiles")
+    int tiles;
+
+    @Label("Skipped Frames")
+    @Description("Frames replaced before they were shown, so far")
+    long skippedFrames;
+}
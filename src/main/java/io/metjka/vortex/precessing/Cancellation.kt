@@ -0,0 +1,48 @@
+package io.metjka.vortex.precessing
+
+import java.util.concurrent.CancellationException
+
+/**
+ * Cooperative cancellation for filter runs. Whoever starts a run installs a token with [runWith]; the loops of the
+ * filters call [checkCancelled] between rows or tiles and bail out with a [CancellationException] once it is cancelled.
+ * [TileScheduler] hands the caller's token on to its workers.
+ */
+class CancellationToken {
+
+    @Volatile
+    var isCancelled = false
+        private set
+
+    fun cancel() {
+        isCancelled = true
+    }
+
+    /**
+     * Runs [block] with this token as the current one of this thread.
+     */
+    fun <T> runWith(block: () -> T): T {
+        val previous = local.get()
+        local.set(this)
+        try {
+            return block()
+        } finally {
+            local.set(previous)
+        }
+    }
+
+    companion object {
+
+        private val local = ThreadLocal<CancellationToken?>()
+
+        fun current(): CancellationToken? = local.get()
+    }
+}
+
+/**
+ * Throws a [CancellationException] if the run on this thread has been cancelled.
+ */
+fun checkCancelled() {
+    if (CancellationToken.current()?.isCancelled == true) {
+        throw CancellationException("Filter run cancelled")
+    }
+}
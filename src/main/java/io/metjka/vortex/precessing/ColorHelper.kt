@@ -7,3 +7,23 @@ fun Int.clamp(): Int {
         else -> return this
     }
 }
+
+// Channel access for pixels packed as 0xAARRGGBB, the layout of FastImage.pixels.
+// Filters use these instead of java.awt.Color so per pixel loops never allocate.
+
+const val OPAQUE = 0xFF shl 24
+
+fun Int.alpha(): Int = this ushr 24
+
+fun Int.red(): Int = (this shr 16) and 0xFF
+
+fun Int.green(): Int = (this shr 8) and 0xFF
+
+fun Int.blue(): Int = this and 0xFF
+
+/**
+ * Packs three channels in 0..255 into an opaque pixel, same result as `Color(r, g, b).rgb`.
+ */
+fun rgb(r: Int, g: Int, b: Int): Int = OPAQUE or (r shl 16) or (g shl 8) or b
+
+fun argb(a: Int, r: Int, g: Int, b: Int): Int = (a shl 24) or (r shl 16) or (g shl 8) or b
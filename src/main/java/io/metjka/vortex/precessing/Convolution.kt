@@ -1,14 +1,30 @@
 package io.metjka.vortex.precessing
 
-import java.awt.Color
+import java.awt.Rectangle
+import java.util.Arrays
 
-class Convolution(val fastImage: FastImage) {
+/**
+ * @param tolerance how far a kernel may be from rank 1 and still be run as two 1-D passes, see [Kernel.separate].
+ * @param fftThreshold taps per pixel from which the FFT engine takes over: the kernel area for a direct gather,
+ * the two lengths added up for separable passes.
+ * @param scheduler runs the convolution tile by tile in parallel, `null` keeps it on the calling thread.
+ */
+class Convolution(val fastImage: FastImage,
+                  val tolerance: Float = 0f,
+                  val fftThreshold: Int = FFT_THRESHOLD,
+                  val scheduler: TileScheduler? = null) {
 
     val width = fastImage.width
     val height = fastImage.height
 
     companion object {
 
+        /**
+         * Around 15 x 15 taps per pixel the direct gather gets slower than transforming the whole image. Separable
+         * passes take width + height taps, so they stay ahead of the FFT up to about 112 x 112.
+         */
+        const val FFT_THRESHOLD = 15 * 15
+
         val boxBlur = floatArrayOf(
                 0f, 1f, 0f,
                 1f, 1f, 1f,
@@ -64,6 +80,7 @@ class Convolution(val fastImage: FastImage) {
                 0f, 5f, 18f, 32f, 18f, 5f, 0f,
                 0f, 0f, 0f, 5f, 0f, 1f, 0f
         )
+        val KERNEL7 = Kernel(7, 7, kernel7)
 
         val sharpen = floatArrayOf(
                 0f, -2f, 0f,
@@ -93,48 +110,286 @@ class Convolution(val fastImage: FastImage) {
         )
         val LAP = Kernel(3, 3, lap)
 
+        /**
+         * Mean over a (2 * [radiusX] + 1) x (2 * [radiusY] + 1) box with wrap-around edges, the same as convolving
+         * with a normalized box kernel of ones. It runs off a [SummedAreaTable], so the cost per pixel does not
+         * grow with the radius.
+         */
+        fun meanBlur(image: FastImage, radiusX: Int, radiusY: Int = radiusX, scheduler: TileScheduler? = null): FastImage {
+            require(radiusX >= 0 && radiusY >= 0) { "Radius must not be negative: $radiusX, $radiusY" }
+            val result = newFrame(image.width, image.height)
+            val table = SummedAreaTable(image)
+            inTiles(image.bounds(), scheduler) { table.mean(radiusX, radiusY, result.pixels, it) }
+            return result
+        }
+
+        /**
+         * Gaussian blur approximated by [passes] box means in a row, with box sizes picked so that their combined
+         * variance is [sigma] squared. Three passes are already hard to tell apart from the real kernel.
+         */
+        fun stackedGaussianBlur(image: FastImage, sigma: Double, passes: Int = 3, scheduler: TileScheduler? = null): FastImage {
+            var result = image
+            for (radius in boxRadii(sigma, passes)) {
+                val previous = result
+                result = meanBlur(result, radius, radius, scheduler)
+                if (previous !== image) {
+                    recycle(previous)
+                }
+            }
+            return result
+        }
+
+        /**
+         * Radii of [passes] boxes whose stacked variance comes closest to [sigma] squared:
+         * the lighter box size is used for the first passes and the next odd size for the rest.
+         */
+        internal fun boxRadii(sigma: Double, passes: Int): IntArray {
+            require(sigma >= 0.0 && passes > 0) { "Wrong sigma $sigma or passes $passes" }
+            val ideal = Math.sqrt(12 * sigma * sigma / passes + 1)
+            var lower = Math.floor(ideal).toInt()
+            if (lower % 2 == 0) {
+                lower--
+            }
+            val lighter = Math.round((12 * sigma * sigma - passes * lower * lower - 4 * passes * lower - 3 * passes) /
+                    (-4.0 * lower - 4)).toInt()
+            return IntArray(passes) { if (it < lighter) lower / 2 else lower / 2 + 1 }
+        }
+
+    }
+
+    /**
+     * @param region the only part of the result that is computed, the rest stays transparent black.
+     */
+    fun convolve(kernel: Kernel, region: Rectangle = fastImage.bounds()): FastImage {
+        val result = newFrame(width, height)
+        convolveInto(fastImage, kernel, 0.0, tolerance, fftThreshold, result.pixels, scheduler, region)
+        return result
+    }
+
+}
+
+/**
+ * Picks the engine for [kernel] by the taps each pixel costs against [fftThreshold]: two 1-D passes when it is
+ * separable within [tolerance] and their width + height taps stay below it, the FFT once the kernel area reaches it,
+ * the direct gather otherwise.
+ * With a [scheduler] the gathers run per tile and the FFT per band of rows and columns.
+ *
+ * Only [region] of [dst] is written. The FFT then transforms just the region and the halo the kernel reaches,
+ * which is circular within itself and so leaves the centre exact.
+ */
+internal fun convolveInto(source: FastImage, kernel: Kernel, bias: Double, tolerance: Float, fftThreshold: Int,
+                          dst: IntArray, scheduler: TileScheduler? = null, region: Rectangle = source.bounds()) {
+    val separable = kernel.separate(tolerance)
+    when {
+        separable != null && kernel.with + kernel.height < fftThreshold ->
+            inTiles(region, scheduler) { convolveSeparable(source, kernel, separable, bias, dst, it) }
+        kernel.with * kernel.height >= fftThreshold && region == source.bounds() ->
+            convolveFft(source, kernel, bias, dst, scheduler)
+        kernel.with * kernel.height >= fftThreshold -> {
+            val halo = Math.max(kernel.with, kernel.height) / 2
+            val cut = source.cut(region, halo)
+            val part = IntArray(cut.pixels.size)
+            convolveFft(cut, kernel, bias, part, scheduler)
+            FastImage(source.width, source.height, dst).paste(FastImage(cut.width, cut.height, part), region, halo)
+            recycle(cut)
+        }
+        else -> inTiles(region, scheduler) { convolveDirect(source, kernel, bias, dst, it) }
     }
+}
 
-    fun convolve(kernel: Kernel): FastImage {
-        val array = IntArray(width * height)
+private fun inTiles(region: Rectangle, scheduler: TileScheduler?, action: (region: Rectangle) -> Unit) {
+    if (scheduler == null) {
+        action(region)
+    } else {
+        scheduler.forEachTile(region, action)
+    }
+}
 
-        for (x in 0..width - 1) {
-            for (y in 0..height - 1) {
+/**
+ * Plain K x K gather with wrap-around edges, writing packed pixels of [region] into [dst].
+ * Output rows are produced in order and each kernel row reads one contiguous source row.
+ * The taps are added up as floats and only the sum is turned into a channel value, see [channel].
+ */
+internal fun convolveDirect(source: FastImage, kernel: Kernel, bias: Double, dst: IntArray,
+                            region: Rectangle = source.bounds()) {
+    val width = source.width
+    val height = source.height
+    val src = source.pixels
 
-                var r = 0
-                var g = 0
-                var b = 0
+    for (y in region.y..region.y + region.height - 1) {
+        checkCancelled()
+        val offset = source.rowOffset(y)
+        val offsetY = y - kernel.height / 2 + height
 
-                val offsetX = x - kernel.with / 2 + width
-                val offsetY = y - kernel.height / 2 + height
+        for (x in region.x..region.x + region.width - 1) {
 
-                for (filterX in 0..kernel.with - 1) {
-                    for (filterY in 0..kernel.height - 1) {
+            var r = 0f
+            var g = 0f
+            var b = 0f
 
-                        val imageX: Int = (offsetX + filterX) % width
-                        val imageY: Int = (offsetY + filterY) % height
+            val offsetX = x - kernel.with / 2 + width
 
-                        val color = Color(fastImage.getARGB(imageX, imageY)!!)
+            for (filterY in 0..kernel.height - 1) {
+                val imageRow = ((offsetY + filterY) % height) * width
 
-                        r += (color.red * kernel.getValue(filterX, filterY)).toInt()
-                        g += (color.green * kernel.getValue(filterX, filterY)).toInt()
-                        b += (color.blue * kernel.getValue(filterX, filterY)).toInt()
+                for (filterX in 0..kernel.with - 1) {
+                    val argb = src[imageRow + (offsetX + filterX) % width]
+                    val value = kernel.getValue(filterX, filterY)
 
-                    }
+                    r += argb.red() * value
+                    g += argb.green() * value
+                    b += argb.blue() * value
                 }
-                val rgb = Color(
-                        (kernel.factor * r).toInt().clamp(),
-                        (kernel.factor * g).toInt().clamp(),
-                        (kernel.factor * b).toInt().clamp())
-                        .rgb
+            }
+            dst[offset + x] = rgb(channel(kernel, r, bias), channel(kernel, g, bias), channel(kernel, b, bias))
+        }
+    }
+}
 
-                array[x + y * width] = rgb
+/**
+ * Horizontal pass with [Kernel.Separable.row] into float planes, then a vertical pass with [Kernel.Separable.column],
+ * both with wrap-around edges. For an exact split of an integral kernel the sums are rounded back to whole numbers,
+ * which gives the same pixels as [convolveDirect].
+ *
+ * Only [region] is written; the planes cover it plus the rows above and below that the column reaches.
+ */
+internal fun convolveSeparable(source: FastImage, kernel: Kernel, separable: Kernel.Separable, bias: Double,
+                               dst: IntArray, region: Rectangle = source.bounds()) {
+    val width = source.width
+    val height = source.height
+    val src = source.pixels
+    val row = separable.row
+    val column = separable.column
+    val snap = kernel.integral && separable.error == 0f
+
+    val regionWidth = region.width
+    val lines = region.height + column.size - 1
+    val red = FloatArray(regionWidth * lines)
+    val green = FloatArray(regionWidth * lines)
+    val blue = FloatArray(regionWidth * lines)
+
+    for (line in 0..lines - 1) {
+        checkCancelled()
+        val offset = source.rowOffset(Math.floorMod(region.y - kernel.height / 2 + line, height))
+        val plane = line * regionWidth
+        for (i in 0..regionWidth - 1) {
+            var r = 0f
+            var g = 0f
+            var b = 0f
+
+            val offsetX = region.x + i - kernel.with / 2 + width
+            for (filterX in row.indices) {
+                val argb = src[offset + (offsetX + filterX) % width]
+                val value = row[filterX]
+
+                r += argb.red() * value
+                g += argb.green() * value
+                b += argb.blue() * value
             }
+            red[plane + i] = r
+            green[plane + i] = g
+            blue[plane + i] = b
         }
+    }
+
+    val sumRed = FloatArray(regionWidth)
+    val sumGreen = FloatArray(regionWidth)
+    val sumBlue = FloatArray(regionWidth)
+
+    for (line in 0..region.height - 1) {
+        checkCancelled()
+        Arrays.fill(sumRed, 0f)
+        Arrays.fill(sumGreen, 0f)
+        Arrays.fill(sumBlue, 0f)
 
-        val fastImage1 = FastImage(width, height, array)
-        return fastImage1
+        for (filterY in column.indices) {
+            val value = column[filterY]
+            if (value == 0f) {
+                continue
+            }
+            val plane = (line + filterY) * regionWidth
+            for (i in 0..regionWidth - 1) {
+                sumRed[i] += red[plane + i] * value
+                sumGreen[i] += green[plane + i] * value
+                sumBlue[i] += blue[plane + i] * value
+            }
+        }
+
+        val offset = source.rowOffset(region.y + line) + region.x
+        for (i in 0..regionWidth - 1) {
+            dst[offset + i] = rgb(
+                    channel(kernel, sumRed[i].snap(snap), bias),
+                    channel(kernel, sumGreen[i].snap(snap), bias),
+                    channel(kernel, sumBlue[i].snap(snap), bias))
+        }
     }
+}
 
+private fun Float.snap(snap: Boolean): Float = if (snap) Math.round(this).toFloat() else this
+
+/**
+ * The channel value for the weighted [sum] of a pixel's neighbours. Sums of an integral kernel are whole numbers on
+ * every engine and are truncated as they always were; any other sum is rounded, so that the few ulps the engines
+ * differ by, e.g. 254.99998 against 255.0 under a normalized kernel, don't become a whole level.
+ */
+private fun channel(kernel: Kernel, sum: Float, bias: Double): Int {
+    val value = kernel.factor * sum + bias
+    return (if (kernel.integral) value.toInt() else Math.round(value).toInt()).clamp()
 }
 
+/**
+ * Circular convolution through the frequency domain, which is exactly the wrap-around the other engines use.
+ * Red and green share one complex transform (the kernel is real, so they do not mix), blue gets the other.
+ * With the kernel's that is six double planes of the image size.
+ */
+internal fun convolveFft(source: FastImage, kernel: Kernel, bias: Double, dst: IntArray,
+                         scheduler: TileScheduler? = null) {
+    val width = source.width
+    val height = source.height
+    val src = source.pixels
+    val size = width * height
+    val snap = kernel.integral
+
+    // output(x) = sum of input(x + d) * k(d), i.e. the input convolved with k mirrored around the origin
+    val kernelRe = DoubleArray(size)
+    val kernelIm = DoubleArray(size)
+    for (filterY in 0..kernel.height - 1) {
+        val y = Math.floorMod(kernel.height / 2 - filterY, height)
+        for (filterX in 0..kernel.with - 1) {
+            val x = Math.floorMod(kernel.with / 2 - filterX, width)
+            kernelRe[x + y * width] += kernel.getValue(filterX, filterY).toDouble()
+        }
+    }
+    fft2d(kernelRe, kernelIm, width, height, false, scheduler)
+
+    val redGreenRe = DoubleArray(size) { src[it].red().toDouble() }
+    val redGreenIm = DoubleArray(size) { src[it].green().toDouble() }
+    val blueRe = DoubleArray(size) { src[it].blue().toDouble() }
+    val blueIm = DoubleArray(size)
+
+    fft2d(redGreenRe, redGreenIm, width, height, false, scheduler)
+    fft2d(blueRe, blueIm, width, height, false, scheduler)
+    for (i in 0..size - 1) {
+        val kr = kernelRe[i]
+        val ki = kernelIm[i]
+
+        var re = redGreenRe[i]
+        var im = redGreenIm[i]
+        redGreenRe[i] = re * kr - im * ki
+        redGreenIm[i] = re * ki + im * kr
+
+        re = blueRe[i]
+        im = blueIm[i]
+        blueRe[i] = re * kr - im * ki
+        blueIm[i] = re * ki + im * kr
+    }
+    fft2d(redGreenRe, redGreenIm, width, height, true, scheduler)
+    fft2d(blueRe, blueIm, width, height, true, scheduler)
+
+    for (i in 0..size - 1) {
+        dst[i] = rgb(
+                channel(kernel, redGreenRe[i].toFloat().snap(snap), bias),
+                channel(kernel, redGreenIm[i].toFloat().snap(snap), bias),
+                channel(kernel, blueRe[i].toFloat().snap(snap), bias))
+    }
+}
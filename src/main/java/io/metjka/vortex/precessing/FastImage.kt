@@ -1,13 +1,17 @@
 package io.metjka.vortex.precessing
 
-import java.awt.Point
+import java.awt.Rectangle
 import java.awt.image.BufferedImage
+import java.awt.image.ColorModel
+import java.awt.image.DataBufferByte
 import java.awt.image.DataBufferInt
+import java.awt.image.PixelInterleavedSampleModel
 import java.awt.image.Raster
+import java.awt.image.SinglePixelPackedSampleModel
 
 class FastImage {
 
-    val pixels: IntArray?
+    val pixels: IntArray
 
     var height: Int
     var width: Int
@@ -17,7 +21,7 @@ class FastImage {
         this.height = image.height
         this.width = image.width
 
-        this.pixels = (image.raster?.dataBuffer as DataBufferInt).data
+        this.pixels = (image.raster.dataBuffer as DataBufferInt).data
 
     }
 
@@ -29,35 +33,135 @@ class FastImage {
     }
 
     constructor(width: Int, height: Int) {
-        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
-        this.height = image.height
-        this.width = image.width
-
-        this.pixels = (image.raster.dataBuffer as DataBufferInt).data
+        this.height = height
+        this.width = width
 
+        this.pixels = IntArray(width * height)
     }
 
+    /**
+     * Takes over the pixels of [buf] without copying when they are already packed ints: the array of an INT_ARGB
+     * image is shared, and an INT_RGB one is shared after its unused top byte is set to opaque. Interleaved bytes,
+     * such as the 3BYTE_BGR that ImageIO reads JPEGs into, are packed in one pass. Anything else is converted pixel
+     * by pixel.
+     */
     constructor(buf: BufferedImage) {
-        val image = BufferedImage(buf.width, buf.height, BufferedImage.TYPE_INT_ARGB)
-        image.graphics.drawImage(buf, 0, 0, null)
-        image.graphics.dispose()
+        this.width = buf.width
+        this.height = buf.height
+
+        val shared = sharedPixels(buf)
+        if (shared != null) {
+            if (buf.type == BufferedImage.TYPE_INT_RGB) {
+                for (i in shared.indices) {
+                    shared[i] = shared[i] or OPAQUE
+                }
+            }
+            this.pixels = shared
+        } else {
+            this.pixels = packBytes(buf) ?: converted(buf)
+        }
+    }
 
-        this.pixels = (image.raster?.dataBuffer as DataBufferInt).data
 
-        this.width = image.width
-        this.height = image.height
+    fun getARGB(x: Int, y: Int): Int = pixels[x + y * width]
 
+    fun setARGB(x: Int, y: Int, valu: Int) {
+        pixels[x + y * width] = valu
     }
 
+    fun bounds(): Rectangle = Rectangle(0, 0, width, height)
 
-    fun getARGB(x: Int, y: Int) = pixels?.get(x + y * width)
+    /**
+     * Index of the first pixel of row [y] in [pixels].
+     */
+    fun rowOffset(y: Int): Int = y * width
 
-    fun setARGB(x: Int, y: Int, valu: Int) = pixels?.set(x + y * width, valu)
+    /**
+     * Copies row [y] into [dst], starting at [offset]. [dst] must have room for [width] pixels.
+     */
+    fun getRow(y: Int, dst: IntArray, offset: Int = 0) {
+        System.arraycopy(pixels, y * width, dst, offset, width)
+    }
 
+    /**
+     * Overwrites row [y] with [width] pixels of [src], starting at [offset].
+     */
+    fun setRow(y: Int, src: IntArray, offset: Int = 0) {
+        System.arraycopy(src, offset, pixels, y * width, width)
+    }
+
+    /**
+     * An INT_ARGB image on top of [pixels], without copying them: drawing into it changes this image and the other
+     * way round.
+     */
     fun toBufferedImage(): BufferedImage {
-        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
-        image.data = Raster.createRaster(image.sampleModel, DataBufferInt(pixels, pixels!!.size), Point())
-        return image
+        val model = ColorModel.getRGBdefault()
+        val raster = Raster.createPackedRaster(DataBufferInt(pixels, pixels.size), width, height, width,
+                intArrayOf(0xFF0000, 0xFF00, 0xFF, OPAQUE), null)
+        return BufferedImage(model, raster, false, null)
+    }
+
+    companion object {
+
+        /**
+         * The int array behind [image] when it is exactly `width * height` packed ARGB (or RGB) pixels in rows.
+         */
+        private fun sharedPixels(image: BufferedImage): IntArray? {
+            if (image.type != BufferedImage.TYPE_INT_ARGB && image.type != BufferedImage.TYPE_INT_RGB) {
+                return null
+            }
+            val raster = image.raster
+            val buffer = raster.dataBuffer as? DataBufferInt ?: return null
+            val model = raster.sampleModel as? SinglePixelPackedSampleModel ?: return null
+            val data = buffer.data
+            val plain = buffer.numBanks == 1 && buffer.offset == 0 && raster.sampleModelTranslateX == 0 &&
+                    raster.sampleModelTranslateY == 0 && model.scanlineStride == image.width &&
+                    data.size == image.width * image.height
+            return if (plain) data else null
+        }
+
+        /**
+         * Packs interleaved 8 bit BGR or ABGR samples straight from the bytes behind [image]. Gray is left to
+         * [converted], since Java2D treats its levels as linear and converts them.
+         */
+        private fun packBytes(image: BufferedImage): IntArray? {
+            val type = image.type
+            if (type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_4BYTE_ABGR) {
+                return null
+            }
+            val raster = image.raster
+            val data = (raster.dataBuffer as? DataBufferByte)?.data ?: return null
+            val model = raster.sampleModel as? PixelInterleavedSampleModel ?: return null
+            val stride = model.scanlineStride
+            val step = model.pixelStride
+            val bands = model.bandOffsets
+            val origin = raster.dataBuffer.offset - raster.sampleModelTranslateY * stride - raster.sampleModelTranslateX * step
+
+            val width = image.width
+            val pixels = IntArray(width * image.height)
+            for (y in 0..image.height - 1) {
+                var i = origin + y * stride
+                val offset = y * width
+                for (x in 0..width - 1) {
+                    // bands are in colour model order, R, G, B and A
+                    pixels[offset + x] = when (bands.size) {
+                        3 -> argb(255, data[i + bands[0]].toInt() and 0xFF, data[i + bands[1]].toInt() and 0xFF,
+                                data[i + bands[2]].toInt() and 0xFF)
+                        else -> argb(data[i + bands[3]].toInt() and 0xFF, data[i + bands[0]].toInt() and 0xFF,
+                                data[i + bands[1]].toInt() and 0xFF, data[i + bands[2]].toInt() and 0xFF)
+                    }
+                    i += step
+                }
+            }
+            return pixels
+        }
+
+        /**
+         * Any other layout through its colour model. Unlike drawing onto a transparent image, this keeps
+         * translucent pixels exact.
+         */
+        private fun converted(image: BufferedImage): IntArray =
+                image.getRGB(0, 0, image.width, image.height, null, 0, image.width)
     }
 
 
@@ -0,0 +1,213 @@
+package io.metjka.vortex.precessing
+
+/**
+ * In-place complex FFT of a fixed length on separate real and imaginary arrays.
+ * Powers of two use an iterative radix-2 transform, any other length goes through Bluestein's algorithm on top of it,
+ * so images keep their exact size and convolution stays circular over width and height.
+ *
+ * An instance keeps scratch buffers and must not be shared between threads.
+ */
+internal class Fft(val n: Int) {
+
+    private val radix2 = Integer.bitCount(n) == 1
+
+    private val size: Int
+
+    private val cos: DoubleArray
+    private val sin: DoubleArray
+
+    private val chirpRe: DoubleArray
+    private val chirpIm: DoubleArray
+    private val filterRe: DoubleArray
+    private val filterIm: DoubleArray
+    private val workRe: DoubleArray
+    private val workIm: DoubleArray
+
+    init {
+        var m = n
+        if (!radix2) {
+            m = 1
+            while (m < 2 * n - 1) {
+                m = m shl 1
+            }
+        }
+        size = m
+        cos = DoubleArray(size / 2) { Math.cos(2 * Math.PI * it / size) }
+        sin = DoubleArray(size / 2) { Math.sin(2 * Math.PI * it / size) }
+
+        if (radix2) {
+            chirpRe = DoubleArray(0)
+            chirpIm = DoubleArray(0)
+            filterRe = DoubleArray(0)
+            filterIm = DoubleArray(0)
+            workRe = DoubleArray(0)
+            workIm = DoubleArray(0)
+        } else {
+            // w(k) = exp(-i * pi * k^2 / n), k^2 taken modulo 2n to keep the angle small
+            chirpRe = DoubleArray(n)
+            chirpIm = DoubleArray(n)
+            for (k in 0..n - 1) {
+                val angle = Math.PI * ((k.toLong() * k) % (2L * n)) / n
+                chirpRe[k] = Math.cos(angle)
+                chirpIm[k] = -Math.sin(angle)
+            }
+            filterRe = DoubleArray(size)
+            filterIm = DoubleArray(size)
+            filterRe[0] = chirpRe[0]
+            filterIm[0] = -chirpIm[0]
+            for (k in 1..n - 1) {
+                filterRe[k] = chirpRe[k]
+                filterIm[k] = -chirpIm[k]
+                filterRe[size - k] = chirpRe[k]
+                filterIm[size - k] = -chirpIm[k]
+            }
+            radix2(filterRe, filterIm)
+            workRe = DoubleArray(size)
+            workIm = DoubleArray(size)
+        }
+    }
+
+    /**
+     * Transforms the first [n] entries of [re] and [im]. The inverse includes the 1/n scaling.
+     */
+    fun transform(re: DoubleArray, im: DoubleArray, inverse: Boolean) {
+        if (inverse) {
+            // ifft(x) = conj(fft(conj(x))) / n
+            for (i in 0..n - 1) {
+                im[i] = -im[i]
+            }
+        }
+
+        if (radix2) {
+            radix2(re, im)
+        } else {
+            bluestein(re, im)
+        }
+
+        if (inverse) {
+            val scale = 1.0 / n
+            for (i in 0..n - 1) {
+                re[i] *= scale
+                im[i] = -im[i] * scale
+            }
+        }
+    }
+
+    private fun bluestein(re: DoubleArray, im: DoubleArray) {
+        java.util.Arrays.fill(workRe, 0.0)
+        java.util.Arrays.fill(workIm, 0.0)
+        for (k in 0..n - 1) {
+            workRe[k] = re[k] * chirpRe[k] - im[k] * chirpIm[k]
+            workIm[k] = re[k] * chirpIm[k] + im[k] * chirpRe[k]
+        }
+
+        radix2(workRe, workIm)
+        for (k in 0..size - 1) {
+            val r = workRe[k] * filterRe[k] - workIm[k] * filterIm[k]
+            val i = workRe[k] * filterIm[k] + workIm[k] * filterRe[k]
+            // conjugate so the forward transform below acts as an inverse
+            workRe[k] = r
+            workIm[k] = -i
+        }
+        radix2(workRe, workIm)
+
+        val scale = 1.0 / size
+        for (k in 0..n - 1) {
+            val r = workRe[k] * scale
+            val i = -workIm[k] * scale
+            re[k] = r * chirpRe[k] - i * chirpIm[k]
+            im[k] = r * chirpIm[k] + i * chirpRe[k]
+        }
+    }
+
+    private fun radix2(re: DoubleArray, im: DoubleArray) {
+        var j = 0
+        for (i in 1..size - 1) {
+            var bit = size shr 1
+            while (j and bit != 0) {
+                j = j xor bit
+                bit = bit shr 1
+            }
+            j = j xor bit
+            if (i < j) {
+                var t = re[i]
+                re[i] = re[j]
+                re[j] = t
+                t = im[i]
+                im[i] = im[j]
+                im[j] = t
+            }
+        }
+
+        var length = 2
+        while (length <= size) {
+            val half = length / 2
+            val step = size / length
+            var start = 0
+            while (start < size) {
+                for (k in 0..half - 1) {
+                    val wr = cos[k * step]
+                    val wi = -sin[k * step]
+                    val a = start + k
+                    val b = a + half
+                    val tr = re[b] * wr - im[b] * wi
+                    val ti = re[b] * wi + im[b] * wr
+                    re[b] = re[a] - tr
+                    im[b] = im[a] - ti
+                    re[a] += tr
+                    im[a] += ti
+                }
+                start += length
+            }
+            length = length shl 1
+        }
+    }
+}
+
+/**
+ * Transforms all rows, then all columns. With a [scheduler] bands of rows and columns run in parallel,
+ * each with its own [Fft].
+ */
+internal fun fft2d(re: DoubleArray, im: DoubleArray, width: Int, height: Int, inverse: Boolean,
+                   scheduler: TileScheduler? = null) {
+    if (scheduler == null) {
+        fftRows(re, im, width, 0, height, inverse)
+        fftColumns(re, im, width, height, 0, width, inverse)
+    } else {
+        scheduler.forEachBand(height, scheduler.tileHeight) { from, to -> fftRows(re, im, width, from, to, inverse) }
+        scheduler.forEachBand(width, scheduler.tileHeight) { from, to -> fftColumns(re, im, width, height, from, to, inverse) }
+    }
+}
+
+private fun fftRows(re: DoubleArray, im: DoubleArray, width: Int, from: Int, to: Int, inverse: Boolean) {
+    val rows = Fft(width)
+    val rowRe = DoubleArray(width)
+    val rowIm = DoubleArray(width)
+    for (y in from..to - 1) {
+        checkCancelled()
+        val offset = y * width
+        System.arraycopy(re, offset, rowRe, 0, width)
+        System.arraycopy(im, offset, rowIm, 0, width)
+        rows.transform(rowRe, rowIm, inverse)
+        System.arraycopy(rowRe, 0, re, offset, width)
+        System.arraycopy(rowIm, 0, im, offset, width)
+    }
+}
+
+private fun fftColumns(re: DoubleArray, im: DoubleArray, width: Int, height: Int, from: Int, to: Int, inverse: Boolean) {
+    val columns = Fft(height)
+    val columnRe = DoubleArray(height)
+    val columnIm = DoubleArray(height)
+    for (x in from..to - 1) {
+        checkCancelled()
+        for (y in 0..height - 1) {
+            columnRe[y] = re[x + y * width]
+            columnIm[y] = im[x + y * width]
+        }
+        columns.transform(columnRe, columnIm, inverse)
+        for (y in 0..height - 1) {
+            re[x + y * width] = columnRe[y]
+            im[x + y * width] = columnIm[y]
+        }
+    }
+}
@@ -2,4 +2,25 @@ package io.metjka.vortex.precessing
 
 interface Filter {
     fun filter(): FastImage
-}
\ No newline at end of file
+}
+
+/**
+ * A filter that is a [PixelOp] over its source image, so it can be fused with its neighbours in a [Pipeline].
+ */
+interface PixelFilter : Filter {
+    val fastImage: FastImage
+    val pixelOp: PixelOp
+
+    override fun filter(): FastImage = pixelOp.filter(fastImage)
+}
+
+/**
+ * A filter that is nothing more than a [PointOp] over its source image.
+ * Adjacent point filters can be folded into one table with [PointOp.compose].
+ */
+interface PointFilter : PixelFilter {
+    val pointOp: PointOp
+
+    override val pixelOp: PixelOp
+        get() = pointOp
+}
@@ -1,7 +1,5 @@
 package io.metjka.vortex.precessing
 
-import java.awt.Color
-
 class Filters(fastImage: FastImage) : ProcessingFilter(fastImage) {
 
     val fast = fastImage
@@ -10,40 +8,7 @@ class Filters(fastImage: FastImage) : ProcessingFilter(fastImage) {
 
     fun blur(kernel: Kernel): IntArray {
         val array = IntArray(width * height)
-
-        for (x in 0..width - 1) {
-            for (y in 0..height - 1) {
-
-                var r = 0
-                var g = 0
-                var b = 0
-
-                val offsetX = x - kernel.with / 2 + width
-                val offsetY = y - kernel.height / 2 + height
-
-                for (filterX in 0..kernel.with - 1) {
-                    for (filterY in 0..kernel.height - 1) {
-
-                        val imageX: Int = (offsetX + filterX) % width
-                        val imageY: Int = (offsetY + filterY) % height
-
-                        val color = Color(fast.getARGB(imageX, imageY)!!)
-
-                        r += (color.red * kernel.getValue(filterX, filterY)).toInt()
-                        g += (color.green * kernel.getValue(filterX, filterY)).toInt()
-                        b += (color.blue * kernel.getValue(filterX, filterY)).toInt()
-
-                    }
-                }
-                val rgb = Color(
-                        colorFlor(colorRoof((kernel.factor * r + bias).toInt())),
-                        colorFlor(colorRoof((kernel.factor * g + bias).toInt())),
-                        colorFlor(colorRoof((kernel.factor * b + bias).toInt())))
-                        .rgb
-
-                array[x + y * width] = rgb
-            }
-        }
+        convolveInto(fast, kernel, bias, 0f, Convolution.FFT_THRESHOLD, array)
         return array
     }
 
@@ -0,0 +1,151 @@
+package io.metjka.vortex.precessing
+
+import io.metjka.vortex.jfr.Flight
+import java.util.ArrayDeque
+import java.util.Arrays
+import java.util.WeakHashMap
+
+/**
+ * Recycles the pixel arrays of output frames, bucketed by pixel count, so a slider drag reuses the same few frames
+ * instead of allocating tens of MB per change.
+ *
+ * Filters get their output frames through [newFrame], which takes them from the pool installed with [runWith] on
+ * the current thread. Frames start out unowned; [retain] takes a reference and [release] drops one, and the last
+ * release puts the array back into its bucket. Releasing an unowned frame recycles it straight away, which suits
+ * the intermediate frames of a filter. Only arrays made by the pool are ever recycled, so releasing any other
+ * image is harmless, and frames that are simply dropped are left to the garbage collector.
+ *
+ * @param budgetBytes how much the idle arrays in the buckets may add up to; beyond that released arrays are dropped.
+ */
+class FramePool(val budgetBytes: Long = DEFAULT_BUDGET) {
+
+    class Stats(val obtained: Long, val hits: Long, val recycled: Long, val dropped: Long,
+                val liveBytes: Long, val pooledBytes: Long, val peakBytes: Long) {
+
+        val hitRate: Double
+            get() = if (obtained == 0L) 0.0 else hits.toDouble() / obtained
+
+        override fun toString(): String =
+                "obtained=$obtained hits=$hits (${Math.round(hitRate * 100)}%) recycled=$recycled dropped=$dropped " +
+                        "live=$liveBytes pooled=$pooledBytes peak=$peakBytes"
+    }
+
+    private val buckets = HashMap<Int, ArrayDeque<IntArray>>()
+
+    // arrays made here and not back in a bucket, with their reference counts; weak, so dropped frames don't leak
+    private val frames = WeakHashMap<IntArray, Int>()
+
+    private var obtained = 0L
+    private var hits = 0L
+    private var recycled = 0L
+    private var dropped = 0L
+    private var pooledBytes = 0L
+    private var peakBytes = 0L
+
+    /**
+     * A [width] x [height] frame, recycled when one of that size is free.
+     *
+     * @param clear zero the pixels; filters that write every pixel can skip it.
+     */
+    @Synchronized
+    fun obtain(width: Int, height: Int, clear: Boolean = true): FastImage {
+        val size = width * height
+        obtained++
+        val pixels = buckets[size]?.pollFirst()
+        val array = if (pixels == null) {
+            IntArray(size)
+        } else {
+            hits++
+            pooledBytes -= size * 4L
+            if (clear) {
+                Arrays.fill(pixels, 0)
+            }
+            pixels
+        }
+        frames[array] = 0
+        peakBytes = Math.max(peakBytes, liveBytes() + pooledBytes)
+        Flight.frameAcquired(width, height, pixels != null, pooledBytes)
+        return FastImage(width, height, array)
+    }
+
+    @Synchronized
+    fun retain(image: FastImage) {
+        val count = frames[image.pixels] ?: return
+        frames[image.pixels] = count + 1
+    }
+
+    @Synchronized
+    fun release(image: FastImage) {
+        val pixels = image.pixels
+        val count = frames[pixels] ?: return
+        if (count > 1) {
+            frames[pixels] = count - 1
+            return
+        }
+        frames.remove(pixels)
+        if (pooledBytes + pixels.size * 4L > budgetBytes) {
+            dropped++
+            Flight.frameReleased(pixels.size * 4L, false)
+            return
+        }
+        buckets.getOrPut(pixels.size) { ArrayDeque() }.addFirst(pixels)
+        pooledBytes += pixels.size * 4L
+        recycled++
+        Flight.frameReleased(pixels.size * 4L, true)
+    }
+
+    /**
+     * Drops every idle array.
+     */
+    @Synchronized
+    fun clear() {
+        buckets.clear()
+        pooledBytes = 0
+    }
+
+    @Synchronized
+    fun stats(): Stats = Stats(obtained, hits, recycled, dropped, liveBytes(), pooledBytes, peakBytes)
+
+    /**
+     * Frames handed out and not yet collected or released.
+     */
+    private fun liveBytes(): Long = frames.keys.fold(0L) { bytes, pixels -> bytes + pixels.size * 4L }
+
+    /**
+     * Runs [block] with this pool as the current one of this thread, see [newFrame].
+     */
+    fun <T> runWith(block: () -> T): T {
+        val previous = local.get()
+        local.set(this)
+        try {
+            return block()
+        } finally {
+            local.set(previous)
+        }
+    }
+
+    companion object {
+
+        /**
+         * 512 MB of idle frames, a few dozen at 4K.
+         */
+        const val DEFAULT_BUDGET = 512L shl 20
+
+        private val local = ThreadLocal<FramePool?>()
+
+        fun current(): FramePool? = local.get()
+    }
+}
+
+/**
+ * A cleared [width] x [height] frame for a filter's output, from the current [FramePool] if there is one.
+ */
+fun newFrame(width: Int, height: Int): FastImage =
+        FramePool.current()?.obtain(width, height) ?: FastImage(width, height)
+
+/**
+ * Hands an intermediate frame that nobody will read again back to the current [FramePool].
+ */
+fun recycle(image: FastImage) {
+    FramePool.current()?.release(image)
+}
@@ -1,27 +1,24 @@
 package io.metjka.vortex.precessing
 
-import java.awt.Color
-
-class GrayFilter(val fastImage: FastImage) : Filter {
+class GrayFilter(override val fastImage: FastImage) : PixelFilter {
 
     val width = fastImage.width
     val height = fastImage.height
 
-    override fun filter(): FastImage {
-        val image = FastImage(width, height)
-        for (x in 0..width - 1) {
-            for (y in 0..height - 1) {
-                val color = Color(fastImage.getARGB(x, y)!!)
-                val r: Int = (color.red * 0.3).toInt().clamp()
-                val g: Int = (color.green * 0.59).toInt().clamp()
-                val b: Int = (color.blue * 0.11).toInt().clamp()
-                val gray = (r + g + b).clamp()
-                val color1 = Color(gray, gray, gray)
-                image.setARGB(x, y, color1.rgb)
-            }
-        }
-        return image;
-    }
+    override val pixelOp: PixelOp = GrayOp
 
+}
 
-}
\ No newline at end of file
+object GrayOp : PixelOp {
+
+    override fun apply(pixels: IntArray, from: Int, to: Int) {
+        for (i in from..to - 1) {
+            val argb = pixels[i]
+            val r: Int = (argb.red() * 0.3).toInt().clamp()
+            val g: Int = (argb.green() * 0.59).toInt().clamp()
+            val b: Int = (argb.blue() * 0.11).toInt().clamp()
+            val gray = (r + g + b).clamp()
+            pixels[i] = rgb(gray, gray, gray)
+        }
+    }
+}
@@ -8,26 +8,24 @@ class HueSaturationValueFilter(val fastImage: FastImage) {
     val height = fastImage.height
 
     fun filter(hue: Int, saturation: Int, value: Int): FastImage {
-        val image = FastImage(width, height)
-        for (x in 0..width - 1) {
-            for (y in 0..height - 1) {
-                val color = Color(fastImage.getARGB(x, y)!!)
-                val r = color.red
-                val g = color.green
-                val b = color.blue
-
-                val arra = floatArrayOf(0F, 0F, 0F)
-                val hsb = Color.RGBtoHSB(r, g, b, arra)
-
-                val hue1 = hsb.get(0).plus((hue.toFloat() / 100F * 360F) / 100F).clampHue()
-                val saturation1 = hsb.get(1).times(saturation.toFloat() / 100).clampSaturation()
-                val value1 = hsb.get(2).times(value.toFloat() / 100).clampValue()
-
-                val hsBtoRGB = Color(Color.HSBtoRGB(hue1, saturation1, value1))
-                image.setARGB(x, y, hsBtoRGB.rgb)
-            }
+        return HueSaturationValueOp(hue, saturation, value).filter(fastImage)
+    }
+}
+
+class HueSaturationValueOp(val hue: Int, val saturation: Int, val value: Int) : PixelOp {
+
+    override fun apply(pixels: IntArray, from: Int, to: Int) {
+        val hsb = floatArrayOf(0F, 0F, 0F)
+        for (i in from..to - 1) {
+            val argb = pixels[i]
+            Color.RGBtoHSB(argb.red(), argb.green(), argb.blue(), hsb)
+
+            val hue1 = hsb[0].plus((hue.toFloat() / 100F * 360F) / 100F).clampHue()
+            val saturation1 = hsb[1].times(saturation.toFloat() / 100).clampSaturation()
+            val value1 = hsb[2].times(value.toFloat() / 100).clampValue()
+
+            pixels[i] = Color.HSBtoRGB(hue1, saturation1, value1)
         }
-        return image;
     }
 
     private fun Float.clampHue(): Float {
@@ -48,5 +46,3 @@ class HueSaturationValueFilter(val fastImage: FastImage) {
         } else return this
     }
 }
-
-
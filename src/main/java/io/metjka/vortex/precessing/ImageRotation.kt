@@ -1,48 +1,264 @@
 package io.metjka.vortex.precessing
 
-class ImageRotation(val fastImage: FastImage) {
+import java.awt.Rectangle
+
+/**
+ * Quarter turns are blocked transposes: source and destination are walked in [BLOCK] x [BLOCK] squares that both
+ * fit in L1, instead of striding through memory a column at a time. Other angles are resampled.
+ *
+ * @param scheduler spreads the work over tiles (or bands of rows) in parallel, `null` keeps it on the calling thread.
+ */
+class ImageRotation(val fastImage: FastImage, val scheduler: TileScheduler? = null) {
 
     val width = fastImage.width
     val height = fastImage.height
 
+    enum class Sampling {
+        NEAREST, BILINEAR
+    }
+
+    /**
+     * Rotates by [dig] degrees in the direction of [rotate90]. Multiples of 90 are exact, anything else is
+     * resampled with [Sampling.BILINEAR].
+     */
     fun rotate(dig: Int): FastImage {
-        when (dig) {
+        when (Math.floorMod(dig, 360)) {
+            0 -> return copy()
             90 -> return rotate90()
-            -90 -> return rotateMinus90()
             180 -> return rotate180()
-            else -> throw IllegalArgumentException("Wrong angle")
+            270 -> return rotateMinus90()
+            else -> return rotate(dig.toDouble(), Sampling.BILINEAR)
         }
     }
 
-    fun rotate90(): FastImage {
-        val image = FastImage(height, width)
+    fun rotate90(): FastImage = transpose { x, y -> fastImage.rowOffset(x) + width - y - 1 }
+
+    fun rotateMinus90(): FastImage = transpose { x, y -> fastImage.rowOffset(height - x - 1) + y }
+
+    /**
+     * @param inPlace turn [fastImage] itself instead of a copy.
+     */
+    fun rotate180(inPlace: Boolean = false): FastImage {
+        val image = if (inPlace) fastImage else copy()
+        val pixels = image.pixels
+        var i = 0
+        var j = pixels.size - 1
+        while (i < j) {
+            val swap = pixels[i]
+            pixels[i] = pixels[j]
+            pixels[j] = swap
+            i++
+            j--
+        }
+        return image
+    }
 
-        for (x in 0..height - 1) {
-            for (y in 0..width - 1) {
-                image.setARGB(x, y, fastImage.getARGB(width - y - 1, x)!!)
+    /**
+     * Flips left and right.
+     */
+    fun mirrorHorizontal(inPlace: Boolean = false): FastImage {
+        val image = if (inPlace) fastImage else copy()
+        val pixels = image.pixels
+        image.forEachRow { _, offset ->
+            var i = offset
+            var j = offset + width - 1
+            while (i < j) {
+                val swap = pixels[i]
+                pixels[i] = pixels[j]
+                pixels[j] = swap
+                i++
+                j--
             }
         }
         return image
     }
 
-    fun rotateMinus90(): FastImage {
-        val image = FastImage(height, width)
+    /**
+     * Flips top and bottom.
+     */
+    fun mirrorVertical(inPlace: Boolean = false): FastImage {
+        val image = if (inPlace) fastImage else copy()
+        val row = IntArray(width)
+        for (y in 0..height / 2 - 1) {
+            val other = height - y - 1
+            image.getRow(y, row)
+            System.arraycopy(image.pixels, image.rowOffset(other), image.pixels, image.rowOffset(y), width)
+            image.setRow(other, row)
+        }
+        return image
+    }
+
+    /**
+     * Rotates by any angle onto a canvas that fits the whole turned image; uncovered pixels are transparent.
+     * Bilinear sampling blends with premultiplied alpha, so edges fade out instead of picking up dark fringes.
+     *
+     * @param region the only part of the canvas that is computed, `null` for all of it.
+     */
+    fun rotate(degrees: Double, sampling: Sampling, region: Rectangle? = null): FastImage {
+        val radians = Math.toRadians(degrees)
+        val cos = Math.cos(radians)
+        val sin = Math.sin(radians)
+        val canvas = canvas(width, height, degrees)
+        val newWidth = canvas.width
+        val newHeight = canvas.height
 
-        for (x in 0..height - 1) {
-            for (y in 0..width - 1) {
-                image.setARGB(x, y, fastImage.getARGB(y, height - x - 1)!!)
+        val image = newFrame(newWidth, newHeight)
+        val dst = image.pixels
+        val centerX = newWidth / 2.0
+        val centerY = newHeight / 2.0
+        val part = region?.intersection(canvas) ?: canvas
+        if (part.isEmpty) {
+            return image
+        }
+
+        inBands(part.height) { from, to ->
+            for (y in part.y + from..part.y + to - 1) {
+                checkCancelled()
+                val offset = image.rowOffset(y)
+                val dy = y + 0.5 - centerY
+                for (x in part.x..part.x + part.width - 1) {
+                    val dx = x + 0.5 - centerX
+                    // inverse of the turn, back into source pixel coordinates
+                    val sourceX = cos * dx - sin * dy + width / 2.0 - 0.5
+                    val sourceY = sin * dx + cos * dy + height / 2.0 - 0.5
+                    dst[offset + x] = when (sampling) {
+                        Sampling.NEAREST -> nearest(sourceX, sourceY)
+                        Sampling.BILINEAR -> bilinear(sourceX, sourceY)
+                    }
+                }
             }
         }
         return image
     }
 
-    fun rotate180(): FastImage {
+    private fun nearest(sourceX: Double, sourceY: Double): Int {
+        val x = Math.floor(sourceX + 0.5).toInt()
+        val y = Math.floor(sourceY + 0.5).toInt()
+        return sample(x, y)
+    }
 
-        val toIntArray = fastImage.pixels?.reversed()?.toIntArray()
-        val image = FastImage(width, height, toIntArray!!)
+    private fun bilinear(sourceX: Double, sourceY: Double): Int {
+        val x = Math.floor(sourceX).toInt()
+        val y = Math.floor(sourceY).toInt()
+        val fx = sourceX - x
+        val fy = sourceY - y
 
-        return image;
+        var a = 0.0
+        var r = 0.0
+        var g = 0.0
+        var b = 0.0
+        for (corner in 0..3) {
+            val cx = x + (corner and 1)
+            val cy = y + (corner shr 1)
+            val weight = (if (corner and 1 == 0) 1 - fx else fx) * (if (corner shr 1 == 0) 1 - fy else fy)
+            val argb = sample(cx, cy)
+            val alpha = argb.alpha() * weight
+            a += alpha
+            r += argb.red() * alpha
+            g += argb.green() * alpha
+            b += argb.blue() * alpha
+        }
+        if (a < 0.5) {
+            return 0
+        }
+        return argb((a + 0.5).toInt().clamp(), (r / a + 0.5).toInt().clamp(), (g / a + 0.5).toInt().clamp(), (b / a + 0.5).toInt().clamp())
     }
 
-}
+    private fun sample(x: Int, y: Int): Int =
+            if (x < 0 || y < 0 || x >= width || y >= height) 0 else fastImage.pixels[x + y * width]
+
+    /**
+     * Builds the [height] x [width] result, reading each destination pixel from `pixels[source(x, y)]`.
+     */
+    private inline fun transpose(crossinline source: (x: Int, y: Int) -> Int): FastImage {
+        val image = newFrame(height, width)
+        val src = fastImage.pixels
+        val dst = image.pixels
+        val block = { region: Rectangle ->
+            for (blockY in region.y..region.y + region.height - 1 step BLOCK) {
+                checkCancelled()
+                val endY = Math.min(blockY + BLOCK, region.y + region.height)
+                for (blockX in region.x..region.x + region.width - 1 step BLOCK) {
+                    val endX = Math.min(blockX + BLOCK, region.x + region.width)
+                    for (y in blockY..endY - 1) {
+                        val offset = image.rowOffset(y)
+                        for (x in blockX..endX - 1) {
+                            dst[offset + x] = src[source(x, y)]
+                        }
+                    }
+                }
+            }
+        }
+        if (scheduler == null) {
+            block(image.bounds())
+        } else {
+            scheduler.forEachTile(image.width, image.height, block)
+        }
+        return image
+    }
 
+    private fun inBands(rows: Int, action: (from: Int, to: Int) -> Unit) {
+        if (scheduler == null) {
+            action(0, rows)
+        } else {
+            scheduler.forEachBand(rows, scheduler.tileHeight, action)
+        }
+    }
+
+    private fun copy(): FastImage {
+        val image = newFrame(width, height)
+        System.arraycopy(fastImage.pixels, 0, image.pixels, 0, image.pixels.size)
+        return image
+    }
+
+    companion object {
+        /**
+         * 32 x 32 pixels are 4 KB, so a source and a destination block sit in L1 together.
+         */
+        const val BLOCK = 32
+
+        /**
+         * The canvas [rotate] puts a [width] x [height] image turned by [degrees] on.
+         */
+        fun canvas(width: Int, height: Int, degrees: Double): Rectangle {
+            val radians = Math.toRadians(degrees)
+            val cos = Math.abs(Math.cos(radians))
+            val sin = Math.abs(Math.sin(radians))
+            // a tiny slack keeps 90 degrees from growing the canvas by a pixel through cos(pi / 2) != 0
+            return Rectangle(0, 0,
+                    Math.ceil(width * cos + height * sin - 1e-9).toInt(),
+                    Math.ceil(width * sin + height * cos - 1e-9).toInt())
+        }
+
+        /**
+         * The pixels of a [width] x [height] source that [rotate] by [degrees] reads for [region] of the canvas,
+         * with one more around for the bilinear neighbours.
+         */
+        fun sourceRegion(width: Int, height: Int, degrees: Double, region: Rectangle): Rectangle {
+            val radians = Math.toRadians(degrees)
+            val cos = Math.cos(radians)
+            val sin = Math.sin(radians)
+            val canvas = canvas(width, height, degrees)
+            var left = Double.MAX_VALUE
+            var top = Double.MAX_VALUE
+            var right = -Double.MAX_VALUE
+            var bottom = -Double.MAX_VALUE
+            for (corner in 0..3) {
+                val dx = region.x + (corner and 1) * region.width - canvas.width / 2.0
+                val dy = region.y + (corner shr 1) * region.height - canvas.height / 2.0
+                val sourceX = cos * dx - sin * dy + width / 2.0 - 0.5
+                val sourceY = sin * dx + cos * dy + height / 2.0 - 0.5
+                left = Math.min(left, sourceX)
+                top = Math.min(top, sourceY)
+                right = Math.max(right, sourceX)
+                bottom = Math.max(bottom, sourceY)
+            }
+            val x = Math.floor(left).toInt() - 1
+            val y = Math.floor(top).toInt() - 1
+            val needed = Rectangle(x, y, Math.ceil(right).toInt() + 2 - x, Math.ceil(bottom).toInt() + 2 - y)
+                    .intersection(Rectangle(0, 0, width, height))
+            return if (needed.isEmpty) Rectangle() else needed
+        }
+    }
+
+}
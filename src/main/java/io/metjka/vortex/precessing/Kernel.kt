@@ -4,6 +4,12 @@ data class Kernel(val with: Int, val height: Int, val array: FloatArray) {
 
     val factor: Float
 
+    /**
+     * Whether every weight is a whole number. Convolving 0..255 channels with such a kernel gives whole sums,
+     * which the faster engines use to land on exactly the same result as the direct gather.
+     */
+    val integral: Boolean = array.all { it == Math.rint(it.toDouble()).toFloat() }
+
     init {
         val sum = array.sum()
 
@@ -17,4 +23,198 @@ data class Kernel(val with: Int, val height: Int, val array: FloatArray) {
     fun getValue(x: Int, y: Int): Float {
         return array[x + y * with]
     }
-}
\ No newline at end of file
+
+    /**
+     * Splits this kernel into a vertical and a horizontal 1-D kernel whose outer product is this kernel,
+     * so it can be applied as two passes of K taps instead of one pass of K * K.
+     *
+     * @param tolerance the largest acceptable error, relative to the size of the kernel. With 0 only kernels of
+     * rank 1 are split; otherwise the best rank 1 approximation (the leading singular pair) is accepted when it is close enough.
+     * @return the split, or null when this kernel is not (close enough to) separable.
+     */
+    fun separate(tolerance: Float = 0f): Separable? {
+        if (with < 2 || height < 2) {
+            return null
+        }
+        val norm = Math.sqrt(array.sumByDouble { it.toDouble() * it })
+        if (norm == 0.0) {
+            return null
+        }
+
+        val exact = separateExact()
+        if (exact != null) {
+            return exact
+        }
+        if (tolerance <= 0f) {
+            return null
+        }
+
+        val approximate = leadingSingularPair()
+        val error = (residual(approximate.column, approximate.row) / norm).toFloat()
+        return if (error <= tolerance) Separable(approximate.column, approximate.row, error) else null
+    }
+
+    /**
+     * Rank 1 test: every row has to be a multiple of the row through the largest weight.
+     */
+    private fun separateExact(): Separable? {
+        val pivot = pivotIndex()
+        val pivotX = pivot % with
+        val pivotY = pivot / with
+        val pivotValue = array[pivot]
+
+        val row = FloatArray(with) { array[it + pivotY * with] }
+        val column = FloatArray(height) { array[pivotX + it * with] / pivotValue }
+
+        val epsilon = Math.abs(pivotValue) * 1e-5
+        for (y in 0..height - 1) {
+            for (x in 0..with - 1) {
+                if (Math.abs(column[y] * row[x] - array[x + y * with]) > epsilon) {
+                    return null
+                }
+            }
+        }
+        return Separable(column, row, 0f)
+    }
+
+    /**
+     * Power iteration on K^T * K, which converges to the leading right singular vector of the kernel.
+     */
+    private fun leadingSingularPair(): Separable {
+        val pivotY = pivotIndex() / with
+        var row = DoubleArray(with) { array[it + pivotY * with].toDouble() }
+        val column = DoubleArray(height)
+
+        for (iteration in 0..99) {
+            for (y in 0..height - 1) {
+                var sum = 0.0
+                for (x in 0..with - 1) {
+                    sum += array[x + y * with] * row[x]
+                }
+                column[y] = sum
+            }
+            val next = DoubleArray(with)
+            for (y in 0..height - 1) {
+                for (x in 0..with - 1) {
+                    next[x] += array[x + y * with] * column[y]
+                }
+            }
+            val length = Math.sqrt(next.sumByDouble { it * it })
+            if (length == 0.0) {
+                break
+            }
+            for (x in 0..with - 1) {
+                next[x] /= length
+            }
+            val delta = (0..with - 1).sumByDouble { Math.abs(next[it] - row[it]) }
+            row = next
+            if (delta < 1e-12) {
+                break
+            }
+        }
+
+        // column = K * v carries the singular value, row stays unit length
+        for (y in 0..height - 1) {
+            var sum = 0.0
+            for (x in 0..with - 1) {
+                sum += array[x + y * with] * row[x]
+            }
+            column[y] = sum
+        }
+        return Separable(
+                FloatArray(height) { column[it].toFloat() },
+                FloatArray(with) { row[it].toFloat() },
+                0f)
+    }
+
+    private fun pivotIndex(): Int {
+        var pivot = 0
+        for (i in array.indices) {
+            if (Math.abs(array[i]) > Math.abs(array[pivot])) {
+                pivot = i
+            }
+        }
+        return pivot
+    }
+
+    private fun residual(column: FloatArray, row: FloatArray): Double {
+        var sum = 0.0
+        for (y in 0..height - 1) {
+            for (x in 0..with - 1) {
+                val difference = array[x + y * with] - column[y].toDouble() * row[x]
+                sum += difference * difference
+            }
+        }
+        return Math.sqrt(sum)
+    }
+
+    /**
+     * This kernel for an image scaled by [scale], e.g. 1/8 for a preview proxy. Every tap is spread bilinearly onto
+     * a grid [scale] times as coarse, so the kernel covers the same part of the picture and keeps its total weight:
+     * a blur stays as bright, an edge kernel still sums to zero. Scales of 1 and above return this kernel.
+     */
+    fun rescale(scale: Double): Kernel {
+        if (scale >= 1.0) {
+            return this
+        }
+        val newWith = oddSize(with * scale)
+        val newHeight = oddSize(height * scale)
+        val weights = FloatArray(newWith * newHeight)
+        for (y in 0..height - 1) {
+            for (x in 0..with - 1) {
+                val weight = getValue(x, y)
+                if (weight == 0f) {
+                    continue
+                }
+                val newX = (x - with / 2) * scale + newWith / 2
+                val newY = (y - height / 2) * scale + newHeight / 2
+                val left = Math.floor(newX).toInt()
+                val top = Math.floor(newY).toInt()
+                val fx = (newX - left).toFloat()
+                val fy = (newY - top).toFloat()
+                for (corner in 0..3) {
+                    val cx = Math.min(Math.max(left + (corner and 1), 0), newWith - 1)
+                    val cy = Math.min(Math.max(top + (corner shr 1), 0), newHeight - 1)
+                    val share = (if (corner and 1 == 0) 1 - fx else fx) * (if (corner shr 1 == 0) 1 - fy else fy)
+                    weights[cx + cy * newWith] += weight * share
+                }
+            }
+        }
+        return Kernel(newWith, newHeight, weights)
+    }
+
+    private fun oddSize(size: Double): Int {
+        val rounded = Math.max(1, Math.round(size).toInt())
+        return if (rounded % 2 == 0) rounded + 1 else rounded
+    }
+
+    companion object {
+
+        /**
+         * Uses an image as kernel weights, e.g. the blur shapes in `te/blur-kernel1.png`.
+         * Each weight is the pixel's luminance times its alpha, and the weights are normalized to sum up to 1.
+         */
+        fun fromImage(image: FastImage): Kernel {
+            val weights = FloatArray(image.width * image.height)
+            for (i in weights.indices) {
+                val argb = image.pixels[i]
+                val luminance = 0.3f * argb.red() + 0.59f * argb.green() + 0.11f * argb.blue()
+                weights[i] = luminance * argb.alpha() / (255f * 255f)
+            }
+            val sum = weights.sum()
+            if (sum > 0f) {
+                for (i in weights.indices) {
+                    weights[i] /= sum
+                }
+            }
+            return Kernel(image.width, image.height, weights)
+        }
+    }
+
+    /**
+     * A kernel written as the outer product `column * row`.
+     *
+     * @param error relative Frobenius error of the split, 0 for an exact one.
+     */
+    class Separable(val column: FloatArray, val row: FloatArray, val error: Float)
+}
@@ -0,0 +1,182 @@
+package io.metjka.vortex.precessing
+
+import java.awt.Rectangle
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.IntBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Packed ARGB pixels outside the heap, for images a [FastImage] can't hold: its `IntArray` stops at 2^31 pixels
+ * and lives in the heap. Rows are split into chunks of at most [chunkBytes], each a direct buffer or, with a [file],
+ * a mapping of part of that file, so a 50K x 50K scan costs page cache instead of heap.
+ *
+ * Filters written for [FastImage] run on it unchanged through [filter], one tile at a time.
+ * Buffers are read and written at absolute positions only, so tiles can be processed in parallel.
+ */
+class LargeImage(val width: Int, val height: Int, val file: File? = null,
+                 chunkBytes: Int = CHUNK_BYTES) : Closeable {
+
+    /**
+     * Rows per chunk, at least one.
+     */
+    val chunkRows: Int = Math.max(1, Math.min(height.toLong(), chunkBytes / (width * 4L)).toInt())
+
+    private val chunks: List<IntBuffer>
+
+    private val raf: RandomAccessFile?
+
+    /**
+     * Whether [file] was made for this image and goes again on [close].
+     */
+    private var temporary = false
+
+    init {
+        require(width > 0 && height > 0) { "Wrong size ${width}x$height" }
+        require(width * 4L <= Int.MAX_VALUE) { "Rows of $width pixels don't fit a buffer" }
+        val count = (height + chunkRows - 1) / chunkRows
+        raf = file?.let { RandomAccessFile(it, "rw").apply { setLength(width * 4L * height) } }
+        chunks = List(count) { chunk ->
+            val rows = Math.min(chunkRows, height - chunk * chunkRows)
+            val bytes = rows * width * 4
+            val buffer = if (raf == null) {
+                ByteBuffer.allocateDirect(bytes)
+            } else {
+                raf.channel.map(FileChannel.MapMode.READ_WRITE, chunk.toLong() * chunkRows * width * 4, bytes.toLong())
+            }
+            buffer.order(ByteOrder.nativeOrder()).asIntBuffer()
+        }
+    }
+
+    val pixelCount: Long
+        get() = width.toLong() * height
+
+    fun bounds(): Rectangle = Rectangle(0, 0, width, height)
+
+    fun getARGB(x: Int, y: Int): Int = chunks[y / chunkRows].get(index(x, y))
+
+    fun setARGB(x: Int, y: Int, argb: Int) {
+        chunks[y / chunkRows].put(index(x, y), argb)
+    }
+
+    fun getRow(y: Int, dst: IntArray, offset: Int = 0) {
+        val buffer = chunks[y / chunkRows].duplicate()
+        buffer.position(index(0, y))
+        buffer.get(dst, offset, width)
+    }
+
+    fun setRow(y: Int, src: IntArray, offset: Int = 0) {
+        val buffer = chunks[y / chunkRows].duplicate()
+        buffer.position(index(0, y))
+        buffer.put(src, offset, width)
+    }
+
+    /**
+     * Copies [region] into a heap image together with a [halo] of pixels on every side, wrapping around the edges
+     * like [FastImage.cut].
+     */
+    fun read(region: Rectangle, halo: Int = 0): FastImage {
+        val image = FastImage(region.width + 2 * halo, region.height + 2 * halo)
+        image.forEachRow { y, offset ->
+            val buffer = chunks[Math.floorMod(region.y - halo + y, height) / chunkRows].duplicate()
+            val row = index(0, Math.floorMod(region.y - halo + y, height))
+            var x = 0
+            // at most three spans: before, inside and past the right edge
+            while (x < image.width) {
+                val sourceX = Math.floorMod(region.x - halo + x, width)
+                val span = Math.min(image.width - x, width - sourceX)
+                buffer.position(row + sourceX)
+                buffer.get(image.pixels, offset + x, span)
+                x += span
+            }
+        }
+        return image
+    }
+
+    /**
+     * Copies [part] without its [halo] into [region], the inverse of [read].
+     */
+    fun write(part: FastImage, region: Rectangle, halo: Int = 0) {
+        for (y in 0..region.height - 1) {
+            val buffer = chunks[(region.y + y) / chunkRows].duplicate()
+            buffer.position(index(region.x, region.y + y))
+            buffer.put(part.pixels, part.rowOffset(y + halo) + halo, region.width)
+        }
+    }
+
+    /**
+     * Runs any same-size [filter] over this image tile by tile into a new image, stored in [target] when given,
+     * next to [file] when this image is mapped and in direct buffers otherwise.
+     * [halo] has to cover how far the filter looks at neighbours, as in [TileScheduler.filter].
+     */
+    fun filter(halo: Int, scheduler: TileScheduler = TileScheduler(), target: File? = null,
+               filter: (FastImage) -> FastImage): LargeImage {
+        val result = when {
+            target != null -> LargeImage(width, height, target, chunkRows * width * 4)
+            file != null -> temporary(width, height, file.parentFile, chunkRows * width * 4)
+            else -> LargeImage(width, height, null, chunkRows * width * 4)
+        }
+        try {
+            scheduler.forEachTile(width, height) { tile ->
+                val cut = read(tile, halo)
+                val filtered = filter(cut)
+                if (filtered.width != cut.width || filtered.height != cut.height) {
+                    throw IllegalArgumentException("Tiled filters must keep the image size, got " +
+                            "${filtered.width}x${filtered.height} for ${cut.width}x${cut.height}")
+                }
+                result.write(filtered, tile, halo)
+            }
+        } catch (e: Throwable) {
+            result.close()
+            throw e
+        }
+        return result
+    }
+
+    /**
+     * The whole image on the heap, for the ones that fit.
+     */
+    fun toFastImage(): FastImage {
+        require(pixelCount <= Int.MAX_VALUE) { "${width}x$height is too large for a FastImage" }
+        return read(bounds())
+    }
+
+    /**
+     * Closes a backing [file], and deletes it when it was a temporary one. The buffers themselves are released
+     * by the garbage collector.
+     */
+    override fun close() {
+        raf?.close()
+        if (temporary) {
+            file?.delete()
+        }
+    }
+
+    private fun index(x: Int, y: Int): Int = (y % chunkRows) * width + x
+
+    companion object {
+
+        /**
+         * 256 MB, well below the 2 GB a single buffer or mapping can address.
+         */
+        const val CHUNK_BYTES = 256 shl 20
+
+        fun of(image: FastImage, file: File? = null, chunkBytes: Int = CHUNK_BYTES): LargeImage =
+                LargeImage(image.width, image.height, file, chunkBytes).also { it.write(image, image.bounds()) }
+
+        /**
+         * An image mapped from a fresh temporary file in [directory], deleted again on [close].
+         */
+        fun mapped(width: Int, height: Int, directory: File? = null): LargeImage =
+                temporary(width, height, directory, CHUNK_BYTES)
+
+        private fun temporary(width: Int, height: Int, directory: File?, chunkBytes: Int): LargeImage {
+            val file = File.createTempFile("vortex", ".pixels", directory)
+            file.deleteOnExit()
+            return LargeImage(width, height, file, chunkBytes).also { it.temporary = true }
+        }
+    }
+}
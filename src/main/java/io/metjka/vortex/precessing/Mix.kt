@@ -2,25 +2,26 @@ package io.metjka.vortex.precessing
 
 import java.awt.Color
 
-class Mix(val fastImage: FastImage, val color: Color, val ratio: Float) : Filter {
+class Mix(override val fastImage: FastImage, val color: Color, val ratio: Float) : PixelFilter {
 
     val width = fastImage.width
     val height = fastImage.height
 
+    override val pixelOp: PixelOp = MixOp(color, ratio)
+}
+
+class MixOp(val color: Color, val ratio: Float) : PixelOp {
+
     //TODO
 
-    override fun filter(): FastImage {
-        val image = FastImage(width, height)
-        for (x in 0..width - 1) {
-            for (y in 0..height - 1) {
-                val colorFromPixel = Color(fastImage.getARGB(x, y)!!)
-                val r: Int = (colorFromPixel.red + (color.red - colorFromPixel.red) * ratio).toInt()
-                val g: Int = (colorFromPixel.red + (color.red - colorFromPixel.red) * ratio).toInt()
-                val b: Int = (colorFromPixel.red + (color.red - colorFromPixel.red) * ratio).toInt()
-                val color1 = Color(r, g, b)
-                image.setARGB(x, y, color1.rgb)
-            }
+    override fun apply(pixels: IntArray, from: Int, to: Int) {
+        val mixRed = color.red
+        for (i in from..to - 1) {
+            val red = pixels[i].red()
+            val r: Int = (red + (mixRed - red) * ratio).toInt().clamp()
+            val g: Int = (red + (mixRed - red) * ratio).toInt().clamp()
+            val b: Int = (red + (mixRed - red) * ratio).toInt().clamp()
+            pixels[i] = rgb(r, g, b)
         }
-        return image;
     }
-}
\ No newline at end of file
+}
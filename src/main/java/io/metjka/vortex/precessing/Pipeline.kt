@@ -0,0 +1,115 @@
+package io.metjka.vortex.precessing
+
+/**
+ * A linear chain of image operations. Runs of [PixelOp]s are fused into a single pass over the image,
+ * and adjacent [PointOp]s are folded into one table on top of that. Intermediate frames only exist in front
+ * of a neighbourhood op (convolution, Sobel, rotation) or where a [Stage.Tap] wants to look at them.
+ */
+class Pipeline private constructor(val stages: List<Stage>) {
+
+    sealed class Stage {
+        class Pixels(val op: PixelOp) : Stage()
+        class Frame(val name: String, val transform: (FastImage) -> FastImage) : Stage()
+        class Tap(val listener: (FastImage) -> Unit) : Stage()
+    }
+
+    /**
+     * The stages as they are actually run.
+     */
+    val compiled: List<Stage> = compile(stages)
+
+    /**
+     * Intermediate frames go back to the current [FramePool] once the next stage is done with them,
+     * unless they are the source or a tap has seen them.
+     */
+    fun run(source: FastImage): FastImage {
+        var image = source
+        var shared = true
+        for (stage in compiled) {
+            val next = when (stage) {
+                is Stage.Pixels -> stage.op.filter(image)
+                is Stage.Frame -> stage.transform(image)
+                is Stage.Tap -> {
+                    stage.listener(image)
+                    shared = true
+                    image
+                }
+            }
+            if (next !== image) {
+                if (!shared) {
+                    recycle(image)
+                }
+                image = next
+                shared = false
+            }
+        }
+        return image
+    }
+
+    class Builder {
+
+        private val stages = mutableListOf<Stage>()
+
+        fun pixels(op: PixelOp): Builder {
+            stages.add(Stage.Pixels(op))
+            return this
+        }
+
+        fun frame(name: String, transform: (FastImage) -> FastImage): Builder {
+            stages.add(Stage.Frame(name, transform))
+            return this
+        }
+
+        fun convolve(kernel: Kernel): Builder = frame("convolve") { Convolution(it).convolve(kernel) }
+
+        fun rotate(angle: Int): Builder = frame("rotate") { ImageRotation(it).rotate(angle) }
+
+        fun sobel(): Builder = frame("sobel") { SobelFilter(it).filter().blockingFirst() }
+
+        fun tap(listener: (FastImage) -> Unit): Builder {
+            stages.add(Stage.Tap(listener))
+            return this
+        }
+
+        fun build(): Pipeline = Pipeline(stages.toList())
+    }
+
+    companion object {
+
+        fun compile(stages: List<Stage>): List<Stage> {
+            val compiled = mutableListOf<Stage>()
+            val run = mutableListOf<PixelOp>()
+
+            fun flush() {
+                if (run.isNotEmpty()) {
+                    compiled.add(Stage.Pixels(fuse(run)))
+                    run.clear()
+                }
+            }
+
+            for (stage in stages) {
+                if (stage is Stage.Pixels) {
+                    run.add(stage.op)
+                } else {
+                    flush()
+                    compiled.add(stage)
+                }
+            }
+            flush()
+            return compiled
+        }
+
+        fun fuse(ops: List<PixelOp>): PixelOp {
+            val folded = mutableListOf<PixelOp>()
+            for (op in ops) {
+                val last = folded.lastOrNull()
+                if (op is PointOp && last is PointOp) {
+                    folded[folded.size - 1] = last.andThen(op)
+                } else {
+                    folded.add(op)
+                }
+            }
+            return folded.singleOrNull() ?: FusedPixelOp(folded)
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package io.metjka.vortex.precessing
+
+/**
+ * A filter that maps every pixel on its own, without looking at its neighbours.
+ * It works in place on a slice of [FastImage.pixels], which lets several of them share one pass over an image.
+ */
+interface PixelOp {
+
+    /**
+     * Rewrites `pixels[from until to]` in place.
+     */
+    fun apply(pixels: IntArray, from: Int, to: Int)
+
+    fun filter(fastImage: FastImage): FastImage {
+        val image = newFrame(fastImage.width, fastImage.height)
+        val dst = image.pixels
+        System.arraycopy(fastImage.pixels, 0, dst, 0, dst.size)
+        image.forEachRow { _, offset -> apply(dst, offset, offset + image.width) }
+        return image
+    }
+}
+
+/**
+ * Several [PixelOp]s run back to back over small blocks of pixels, so the block stays in L1 between them
+ * and the image is streamed through memory once.
+ */
+class FusedPixelOp(val ops: List<PixelOp>) : PixelOp {
+
+    private val array = ops.toTypedArray()
+
+    override fun apply(pixels: IntArray, from: Int, to: Int) {
+        var start = from
+        while (start < to) {
+            val end = Math.min(start + BLOCK, to)
+            for (op in array) {
+                op.apply(pixels, start, end)
+            }
+            start = end
+        }
+    }
+
+    companion object {
+        const val BLOCK = 1024
+    }
+}
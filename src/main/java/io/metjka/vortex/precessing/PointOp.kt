@@ -0,0 +1,68 @@
+package io.metjka.vortex.precessing
+
+/**
+ * A per channel function of a single 0..255 value, baked into a 256 entry lookup table.
+ * Applying it costs one table read per channel, and two of them compose into a single table,
+ * so a chain like brightness -> contrast -> gamma is still one pass over the image.
+ */
+class PointOp private constructor(private val table: IntArray) : PixelOp {
+
+    operator fun get(value: Int): Int = table[value]
+
+    /**
+     * @return an op that applies this one and then [next].
+     */
+    fun andThen(next: PointOp): PointOp {
+        return PointOp(IntArray(256) { next.table[table[it]] })
+    }
+
+    /**
+     * Runs the table over red, green and blue. The result is opaque, like the filters it replaces.
+     */
+    override fun apply(pixels: IntArray, from: Int, to: Int) {
+        val lut = table
+        for (i in from..to - 1) {
+            val argb = pixels[i]
+            pixels[i] = rgb(lut[argb.red()], lut[argb.green()], lut[argb.blue()])
+        }
+    }
+
+    fun isIdentity(): Boolean = (0..255).all { table[it] == it }
+
+    companion object {
+
+        val IDENTITY = of { it }
+
+        val INVERT = of { 255 - it }
+
+        /**
+         * Bakes [function] into a table, clamping its results to 0..255.
+         */
+        fun of(function: (Int) -> Int): PointOp {
+            return PointOp(IntArray(256) { function(it).clamp() })
+        }
+
+        fun brightness(value: Int): PointOp = of { it + value }
+
+        fun contrast(contrastVal: Int): PointOp {
+            val contrast = Math.pow((100 + contrastVal).toDouble() / 100, 2.0)
+            return of { ((((it / 255.0) - 0.5) * contrast + 0.5) * 255.0).toInt() }
+        }
+
+        /**
+         * GammaFilter has always applied its curve twice, the table keeps that.
+         */
+        fun gamma(gamma: Double): PointOp {
+            val gammaP: Double = 1 / (5 - gamma)
+            val curve = of { (255 * Math.pow(it.toDouble() / 255.0, gammaP)).toInt() }
+            return curve.andThen(curve)
+        }
+
+        /**
+         * Folds [ops] into one table, in order.
+         */
+        fun compose(ops: List<PointOp>): PointOp {
+            return ops.fold(IDENTITY) { composed, op -> composed.andThen(op) }
+        }
+    }
+}
@@ -33,8 +33,7 @@ abstract class ProcessingFilter(fastImage: FastImage) {
             if (f > 255)
                 f = 255.0
 
-            val rgb = Color(f.toInt(), f.toInt(), f.toInt(), 255).rgb
-            argbArray[i] = rgb
+            argbArray[i] = rgb(f.toInt(), f.toInt(), f.toInt())
         }
         return argbArray
     }
@@ -67,7 +66,7 @@ abstract class ProcessingFilter(fastImage: FastImage) {
             val g = (colorList[index1].green * (1.0 - value) + colorList[index2].green * value).toInt()
             val b = (colorList[index1].blue * (1.0 - value) + colorList[index2].blue * value).toInt()
 
-            argbArray[i] = Color(r, g, b, 255).rgb
+            argbArray[i] = rgb(r, g, b)
         }
         return argbArray
     }
@@ -0,0 +1,42 @@
+package io.metjka.vortex.precessing
+
+import java.awt.Rectangle
+
+/**
+ * [region] grown by [horizontal] pixels left and right and [vertical] pixels above and below.
+ */
+fun grow(region: Rectangle, horizontal: Int, vertical: Int = horizontal): Rectangle =
+        Rectangle(region.x - horizontal, region.y - vertical, region.width + 2 * horizontal, region.height + 2 * vertical)
+
+/**
+ * The part of this image that [region] covers once it wraps around the edges, like the filters do:
+ * a side that sticks out takes in the whole width (or height).
+ */
+fun FastImage.wrapRegion(region: Rectangle): Rectangle {
+    val wrapsX = region.x < 0 || region.x + region.width > width
+    val wrapsY = region.y < 0 || region.y + region.height > height
+    return Rectangle(
+            if (wrapsX) 0 else region.x,
+            if (wrapsY) 0 else region.y,
+            if (wrapsX) width else region.width,
+            if (wrapsY) height else region.height)
+}
+
+/**
+ * Copies [region] out of this image together with a [halo] of pixels on every side, wrapping around the edges.
+ */
+fun FastImage.cut(region: Rectangle, halo: Int = 0): FastImage {
+    val src = pixels
+    return generateImage(region.width + 2 * halo, region.height + 2 * halo) { x, y ->
+        src[Math.floorMod(region.x - halo + x, width) + Math.floorMod(region.y - halo + y, height) * width]
+    }
+}
+
+/**
+ * Copies [part] without its [halo] into [region] of this image, the inverse of [cut].
+ */
+fun FastImage.paste(part: FastImage, region: Rectangle, halo: Int = 0) {
+    for (y in 0..region.height - 1) {
+        System.arraycopy(part.pixels, part.rowOffset(y + halo) + halo, pixels, rowOffset(region.y + y) + region.x, region.width)
+    }
+}
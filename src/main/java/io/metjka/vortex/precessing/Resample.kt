@@ -0,0 +1,50 @@
+package io.metjka.vortex.precessing
+
+import java.util.Arrays
+
+/**
+ * Shrinks the image by [factor] in both directions; each pixel is the average of the block it covers,
+ * so proxies keep the brightness and colour of the original. Blocks on the right and bottom edge may be smaller.
+ */
+fun FastImage.downsample(factor: Int): FastImage {
+    require(factor >= 1) { "Wrong factor $factor" }
+    if (factor == 1) {
+        return this
+    }
+    val newWidth = (width + factor - 1) / factor
+    val newHeight = (height + factor - 1) / factor
+    val image = newFrame(newWidth, newHeight)
+    val src = pixels
+    val dst = image.pixels
+
+    val a = IntArray(newWidth)
+    val r = IntArray(newWidth)
+    val g = IntArray(newWidth)
+    val b = IntArray(newWidth)
+
+    image.forEachRow { y, offset ->
+        Arrays.fill(a, 0)
+        Arrays.fill(r, 0)
+        Arrays.fill(g, 0)
+        Arrays.fill(b, 0)
+        val top = y * factor
+        val bottom = Math.min(top + factor, height)
+        for (sourceY in top..bottom - 1) {
+            val row = rowOffset(sourceY)
+            for (x in 0..width - 1) {
+                val argb = src[row + x]
+                val i = x / factor
+                a[i] += argb.alpha()
+                r[i] += argb.red()
+                g[i] += argb.green()
+                b[i] += argb.blue()
+            }
+        }
+        for (x in 0..newWidth - 1) {
+            val count = (Math.min((x + 1) * factor, width) - x * factor) * (bottom - top)
+            val half = count / 2
+            dst[offset + x] = argb((a[x] + half) / count, (r[x] + half) / count, (g[x] + half) / count, (b[x] + half) / count)
+        }
+    }
+    return image
+}
@@ -1,36 +1,30 @@
 package io.metjka.vortex.precessing
 
-import java.awt.Color
-import java.awt.image.ImageFilter
-
-class SepiaFilter(val fastImage: FastImage) : Filter {
+class SepiaFilter(override val fastImage: FastImage) : PixelFilter {
 
     val width = fastImage.width
     val height = fastImage.height
 
-    override fun filter(): FastImage {
-        val image = FastImage(width, height)
-        for (x in 0..width - 1) {
-            for (y in 0..height - 1) {
-                val color = Color(fastImage.getARGB(x, y)!!)
-                val r: Int = (color.red * 0.3).toInt().clamp()
-                val g: Int = (color.green * 0.59).toInt().clamp()
-                val b: Int = (color.blue * 0.11).toInt().clamp()
+    override val pixelOp: PixelOp = SepiaOp
 
-                val gray = (r + g + b).clamp()
+}
 
-                val r1 = (gray + 110).clamp()
-                val g1 = (gray + 65).clamp()
-                val b1 = (gray + 20).clamp()
+object SepiaOp : PixelOp {
 
-                val color1 = Color(r1, g1, b1)
-                image.setARGB(x, y, color1.rgb)
-            }
-        }
+    override fun apply(pixels: IntArray, from: Int, to: Int) {
+        for (i in from..to - 1) {
+            val argb = pixels[i]
+            val r: Int = (argb.red() * 0.3).toInt().clamp()
+            val g: Int = (argb.green() * 0.59).toInt().clamp()
+            val b: Int = (argb.blue() * 0.11).toInt().clamp()
 
-        ImageFilter()
+            val gray = (r + g + b).clamp()
 
-        return image;
-    }
+            val r1 = (gray + 110).clamp()
+            val g1 = (gray + 65).clamp()
+            val b1 = (gray + 20).clamp()
 
-}
\ No newline at end of file
+            pixels[i] = rgb(r1, g1, b1)
+        }
+    }
+}
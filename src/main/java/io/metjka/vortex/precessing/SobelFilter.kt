@@ -1,59 +1,86 @@
 package io.metjka.vortex.precessing
 
 import io.reactivex.Observable
-import io.reactivex.Observable.zip
-import io.reactivex.functions.BiFunction
 import mu.KotlinLogging
-import java.awt.Color
+import java.awt.Rectangle
 
-class SobelFilter(val fastImage: FastImage) {
+/**
+ * Sobel edge detection in one pass: Gx and Gy of every channel come from a single load of the 3 x 3 neighbourhood
+ * (wrapping around the edges), stay signed, and only their magnitude is clamped to 0..255.
+ *
+ * @param scheduler runs the pass tile by tile in parallel, `null` keeps it on the calling thread.
+ */
+class SobelFilter(val fastImage: FastImage, val scheduler: TileScheduler? = null) {
 
     val log = KotlinLogging.logger { }
 
     val width = fastImage.width
     val height = fastImage.height
 
-    fun filter(): Observable<FastImage> {
-        val convolution = Convolution(fastImage)
-        val obsSobelHorizontal = Observable.fromCallable { convolution.convolve(Convolution.SOBEL_HORIZONTAL) }
-        val obsSobelVertical = Observable.fromCallable { convolution.convolve(Convolution.SOBEL_VERTICAL) }
-
-
-        val zip = zip(obsSobelHorizontal, obsSobelVertical, BiFunction<FastImage, FastImage, FastImage> { r1, r2 ->
-            val fast = FastImage(width, height)
-            for (x in 0..width - 1) {
-                for (y in 0..height - 1) {
-                    val argb1: Int? = r1.getARGB(x, y)
-                    val argb2: Int? = r2.getARGB(x, y)
-                    if (argb1 != null && argb2 != null) {
-
-                        val cx = Color(argb1)
-                        val cy = Color(argb2)
-
-                        val rx = cx.red
-                        val gx = cx.green
-                        val bx = cx.blue
-
-                        val ry = cy.red
-                        val gy = cy.green
-                        val by = cy.blue
-
-                        val R = Math.hypot(rx.toDouble(), ry.toDouble()).toInt().clamp()
-                        val G = Math.hypot(gx.toDouble(), gy.toDouble()).toInt().clamp()
-                        val B = Math.hypot(bx.toDouble(), by.toDouble()).toInt().clamp()
-
-                        val color = Color(R, G, B)
+    /**
+     * Gradient magnitude per channel, plus its direction when it was asked for.
+     *
+     * @property direction angle of the gradient summed over the channels, in radians from +x towards +y (down),
+     * as `atan2(gy, gx)`; `null` unless requested.
+     */
+    class Gradient(val magnitude: FastImage, val direction: FloatArray?)
+
+    fun filter(): Observable<FastImage> = Observable.fromCallable { gradient(false).magnitude }
+
+    fun gradient(withDirection: Boolean = true): Gradient {
+        val magnitude = newFrame(width, height)
+        val direction = if (withDirection) FloatArray(width * height) else null
+        if (scheduler == null) {
+            pass(fastImage.bounds(), magnitude.pixels, direction)
+        } else {
+            scheduler.forEachTile(width, height) { pass(it, magnitude.pixels, direction) }
+        }
+        return Gradient(magnitude, direction)
+    }
 
-                        fast.setARGB(x, y, color.rgb)
-                    }
+    private fun pass(region: Rectangle, dst: IntArray, direction: FloatArray?) {
+        val src = fastImage.pixels
+
+        for (y in region.y..region.y + region.height - 1) {
+            checkCancelled()
+            val above = fastImage.rowOffset((y - 1 + height) % height)
+            val row = fastImage.rowOffset(y)
+            val below = fastImage.rowOffset((y + 1) % height)
+
+            for (x in region.x..region.x + region.width - 1) {
+                val left = (x - 1 + width) % width
+                val right = (x + 1) % width
+
+                val topLeft = src[above + left]
+                val top = src[above + x]
+                val topRight = src[above + right]
+                val middleLeft = src[row + left]
+                val middleRight = src[row + right]
+                val bottomLeft = src[below + left]
+                val bottom = src[below + x]
+                val bottomRight = src[below + right]
+
+                val redX = topRight.red() + 2 * middleRight.red() + bottomRight.red() -
+                        topLeft.red() - 2 * middleLeft.red() - bottomLeft.red()
+                val redY = bottomLeft.red() + 2 * bottom.red() + bottomRight.red() -
+                        topLeft.red() - 2 * top.red() - topRight.red()
+                val greenX = topRight.green() + 2 * middleRight.green() + bottomRight.green() -
+                        topLeft.green() - 2 * middleLeft.green() - bottomLeft.green()
+                val greenY = bottomLeft.green() + 2 * bottom.green() + bottomRight.green() -
+                        topLeft.green() - 2 * top.green() - topRight.green()
+                val blueX = topRight.blue() + 2 * middleRight.blue() + bottomRight.blue() -
+                        topLeft.blue() - 2 * middleLeft.blue() - bottomLeft.blue()
+                val blueY = bottomLeft.blue() + 2 * bottom.blue() + bottomRight.blue() -
+                        topLeft.blue() - 2 * top.blue() - topRight.blue()
+
+                dst[row + x] = rgb(magnitude(redX, redY), magnitude(greenX, greenY), magnitude(blueX, blueY))
+                if (direction != null) {
+                    direction[row + x] = Math.atan2((redY + greenY + blueY).toDouble(), (redX + greenX + blueX).toDouble()).toFloat()
                 }
             }
-            return@BiFunction fast
-
-        })
-
-        return zip
+        }
     }
 
+    private fun magnitude(gx: Int, gy: Int): Int = Math.sqrt((gx * gx + gy * gy).toDouble()).toInt().clamp()
 
-}
\ No newline at end of file
+}
@@ -40,8 +40,8 @@ class Star(fastABGRRGB: FastImage) : ProcessingFilter(fastABGRRGB) {
 
     private fun addStar(x: Int, y: Int, power: Double, radius: Int) {
         val num1 = Math.min(Math.min(4 * (power * radius).toInt(), (width - 1) / 2), (height - 1) / 2)
-        for (i: Int in (x - num1)..(x + num1) - 1) {
-            for (j: Int in (y - num1)..(y + num1) - 1) {
+        for (j: Int in (y - num1)..(y + num1) - 1) {
+            for (i: Int in (x - num1)..(x + num1) - 1) {
                 val sx = this.seamlessCoordination(i, width)
                 val sy = this.seamlessCoordination(j, height)
                 val val1_1: Double = Math.abs(sx - x).toDouble()
@@ -0,0 +1,99 @@
+package io.metjka.vortex.precessing
+
+import java.awt.Rectangle
+
+/**
+ * Per-channel running sums over an image, `sum[x + y * (width + 1)]` being the total of all pixels left of x
+ * and above y. Any axis-aligned box sum then costs four lookups, whatever its size.
+ *
+ * Boxes may reach past the edges; they wrap around like the convolution engines do, by counting whole
+ * periods of the image on top of the remainder.
+ */
+internal class SummedAreaTable(val source: FastImage) {
+
+    private val width = source.width
+    private val height = source.height
+    private val stride = width + 1
+
+    private val red = LongArray(stride * (height + 1))
+    private val green = LongArray(stride * (height + 1))
+    private val blue = LongArray(stride * (height + 1))
+
+    init {
+        val src = source.pixels
+        source.forEachRow { y, offset ->
+            var r = 0L
+            var g = 0L
+            var b = 0L
+            val above = y * stride
+            val line = above + stride
+            for (x in 0..width - 1) {
+                val argb = src[offset + x]
+                r += argb.red()
+                g += argb.green()
+                b += argb.blue()
+                red[line + x + 1] = red[above + x + 1] + r
+                green[line + x + 1] = green[above + x + 1] + g
+                blue[line + x + 1] = blue[above + x + 1] + b
+            }
+        }
+    }
+
+    /**
+     * Writes the mean of the (2 * [radiusX] + 1) x (2 * [radiusY] + 1) box around each pixel of [region] into [dst],
+     * rounded to the nearest value.
+     */
+    fun mean(radiusX: Int, radiusY: Int, dst: IntArray, region: Rectangle = source.bounds()) {
+        val count = (2L * radiusX + 1) * (2L * radiusY + 1)
+        val half = count / 2
+
+        // the left and right edges only depend on x, so split them into period and remainder once
+        val periodsLeft = IntArray(region.width)
+        val left = IntArray(region.width)
+        val periodsRight = IntArray(region.width)
+        val right = IntArray(region.width)
+        for (i in 0..region.width - 1) {
+            val x = region.x + i
+            periodsLeft[i] = Math.floorDiv(x - radiusX, width)
+            left[i] = Math.floorMod(x - radiusX, width)
+            periodsRight[i] = Math.floorDiv(x + radiusX + 1, width)
+            right[i] = Math.floorMod(x + radiusX + 1, width)
+        }
+
+        for (y in region.y..region.y + region.height - 1) {
+            checkCancelled()
+            val periodsTop = Math.floorDiv(y - radiusY, height)
+            val top = Math.floorMod(y - radiusY, height)
+            val periodsBottom = Math.floorDiv(y + radiusY + 1, height)
+            val bottom = Math.floorMod(y + radiusY + 1, height)
+
+            val offset = source.rowOffset(y) + region.x
+            for (i in 0..region.width - 1) {
+                val r = box(red, periodsLeft[i], left[i], periodsTop, top, periodsRight[i], right[i], periodsBottom, bottom)
+                val g = box(green, periodsLeft[i], left[i], periodsTop, top, periodsRight[i], right[i], periodsBottom, bottom)
+                val b = box(blue, periodsLeft[i], left[i], periodsTop, top, periodsRight[i], right[i], periodsBottom, bottom)
+                dst[offset + i] = rgb(((r + half) / count).toInt(), ((g + half) / count).toInt(), ((b + half) / count).toInt())
+            }
+        }
+    }
+
+    private fun box(sum: LongArray,
+                    periodsLeft: Int, left: Int, periodsTop: Int, top: Int,
+                    periodsRight: Int, right: Int, periodsBottom: Int, bottom: Int): Long =
+            corner(sum, periodsRight, right, periodsBottom, bottom) -
+                    corner(sum, periodsLeft, left, periodsBottom, bottom) -
+                    corner(sum, periodsRight, right, periodsTop, top) +
+                    corner(sum, periodsLeft, left, periodsTop, top)
+
+    /**
+     * Sum over `[0, X) x [0, Y)` of the endlessly repeated image, with X = periodsX * width + x
+     * and Y = periodsY * height + y.
+     */
+    private fun corner(sum: LongArray, periodsX: Int, x: Int, periodsY: Int, y: Int): Long {
+        val full = stride * height
+        return periodsX.toLong() * periodsY * sum[width + full] +
+                periodsX.toLong() * sum[width + y * stride] +
+                periodsY.toLong() * sum[x + full] +
+                sum[x + y * stride]
+    }
+}
@@ -0,0 +1,161 @@
+package io.metjka.vortex.precessing
+
+import java.awt.Rectangle
+import java.io.Closeable
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Cuts images into [tileWidth] x [tileHeight] tiles and runs filters over them in parallel on [pool].
+ * The default tile of 256 x 64 packed pixels is 64 KB, which leaves room in L2 for a convolution's halo rows
+ * and its output next to the tile itself.
+ *
+ * Tiles are handed out by recursive halving, so idle workers steal large chunks first.
+ * Calls block until every tile is done and rethrow the first failure. The caller's [CancellationToken]
+ * travels along to the workers, and a cancelled run stops at the next tile.
+ *
+ * [close] shuts down the pool if the scheduler made it, see the [parallelism] constructor; a pool that was passed in
+ * belongs to the caller.
+ */
+class TileScheduler private constructor(val pool: ForkJoinPool,
+                                        val tileWidth: Int,
+                                        val tileHeight: Int,
+                                        private val ownsPool: Boolean) : Closeable {
+
+    constructor(pool: ForkJoinPool = ForkJoinPool.commonPool(), tileWidth: Int = TILE_WIDTH,
+                tileHeight: Int = TILE_HEIGHT) : this(pool, tileWidth, tileHeight, false)
+
+    /**
+     * A scheduler with its own pool of [parallelism] workers, which [close] shuts down.
+     */
+    constructor(parallelism: Int, tileWidth: Int = TILE_WIDTH, tileHeight: Int = TILE_HEIGHT) :
+            this(ForkJoinPool(parallelism), tileWidth, tileHeight, true)
+
+    init {
+        require(tileWidth > 0 && tileHeight > 0) { "Tile size must be positive: ${tileWidth}x$tileHeight" }
+    }
+
+    val parallelism: Int
+        get() = pool.parallelism
+
+    fun tiles(width: Int, height: Int): List<Rectangle> {
+        val tiles = mutableListOf<Rectangle>()
+        for (y in 0..height - 1 step tileHeight) {
+            for (x in 0..width - 1 step tileWidth) {
+                tiles.add(Rectangle(x, y, Math.min(tileWidth, width - x), Math.min(tileHeight, height - y)))
+            }
+        }
+        return tiles
+    }
+
+    fun forEachTile(width: Int, height: Int, action: (tile: Rectangle) -> Unit) =
+            forEachTile(Rectangle(0, 0, width, height), action)
+
+    /**
+     * Runs [action] on the tiles covering [region] only.
+     */
+    fun forEachTile(region: Rectangle, action: (tile: Rectangle) -> Unit) {
+        val tiles = tiles(region.width, region.height).onEach { it.translate(region.x, region.y) }
+        scheduled.addAndGet(tiles.size.toLong())
+        split(tiles.size) { from, to ->
+            for (i in from..to - 1) {
+                checkCancelled()
+                action(tiles[i])
+            }
+        }
+    }
+
+    /**
+     * Splits `0 until count` into bands of [band] and runs [action] on them in parallel, for work that
+     * is not shaped like a tile, e.g. the rows and columns of an FFT.
+     */
+    fun forEachBand(count: Int, band: Int, action: (from: Int, to: Int) -> Unit) {
+        split((count + band - 1) / band) { from, to ->
+            action(from * band, Math.min(count, to * band))
+        }
+    }
+
+    /**
+     * Runs [op] over a copy of [image], one tile at a time.
+     */
+    fun apply(op: PixelOp, image: FastImage): FastImage {
+        val result = newFrame(image.width, image.height)
+        val dst = result.pixels
+        System.arraycopy(image.pixels, 0, dst, 0, dst.size)
+        forEachTile(image.width, image.height) { tile ->
+            for (y in tile.y..tile.y + tile.height - 1) {
+                val offset = result.rowOffset(y) + tile.x
+                op.apply(dst, offset, offset + tile.width)
+            }
+        }
+        return result
+    }
+
+    fun filter(filter: PixelFilter): FastImage = apply(filter.pixelOp, filter.fastImage)
+
+    fun convolve(image: FastImage, kernel: Kernel, bias: Double = 0.0, tolerance: Float = 0f,
+                 fftThreshold: Int = Convolution.FFT_THRESHOLD): FastImage {
+        val result = newFrame(image.width, image.height)
+        convolveInto(image, kernel, bias, tolerance, fftThreshold, result.pixels, this)
+        return result
+    }
+
+    /**
+     * Runs any same-size [filter] tile by tile. Each tile is cut out together with a [halo] of pixels on every side,
+     * wrapping around the image edges like the convolutions do, and only its centre is kept. [halo] has to cover
+     * how far the filter looks at neighbours, e.g. half the kernel size.
+     */
+    fun filter(image: FastImage, halo: Int, filter: (FastImage) -> FastImage): FastImage {
+        val result = newFrame(image.width, image.height)
+        forEachTile(image.width, image.height) { tile ->
+            val cut = image.cut(tile, halo)
+            val filtered = filter(cut)
+            if (filtered.width != cut.width || filtered.height != cut.height) {
+                throw IllegalArgumentException("Tiled filters must keep the image size, got " +
+                        "${filtered.width}x${filtered.height} for ${cut.width}x${cut.height}")
+            }
+            result.paste(filtered, tile, halo)
+        }
+        return result
+    }
+
+    override fun close() {
+        if (ownsPool) {
+            pool.shutdown()
+        }
+    }
+
+    private fun split(tasks: Int, action: (from: Int, to: Int) -> Unit) {
+        if (tasks <= 1) {
+            action(0, tasks)
+        } else {
+            pool.invoke(Split(0, tasks, CancellationToken.current(), action))
+        }
+    }
+
+    private class Split(val from: Int, val to: Int, val token: CancellationToken?,
+                        val action: (from: Int, to: Int) -> Unit) : RecursiveAction() {
+
+        override fun compute() {
+            if (to - from <= 1) {
+                if (token == null) action(from, to) else token.runWith { action(from, to) }
+            } else {
+                val middle = (from + to) ushr 1
+                invokeAll(Split(from, middle, token, action), Split(middle, to, token, action))
+            }
+        }
+    }
+
+    companion object {
+        const val TILE_WIDTH = 256
+        const val TILE_HEIGHT = 64
+
+        private val scheduled = AtomicLong()
+
+        /**
+         * Tiles handed out by every scheduler so far, for diagnostics.
+         */
+        fun scheduledTiles(): Long = scheduled.get()
+    }
+}
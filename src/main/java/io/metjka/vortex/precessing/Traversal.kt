@@ -0,0 +1,41 @@
+package io.metjka.vortex.precessing
+
+// Row-major traversal shared by the filters. FastImage.pixels is laid out as `x + y * width`,
+// so keeping y in the outer loop and x in the inner one walks memory sequentially.
+// Every row is also a point where a cancelled run stops, see checkCancelled.
+
+inline fun FastImage.forEachRow(action: (y: Int, offset: Int) -> Unit) {
+    for (y in 0..height - 1) {
+        checkCancelled()
+        action(y, y * width)
+    }
+}
+
+/**
+ * Builds an image of the same size by applying [transform] to every pixel.
+ */
+inline fun FastImage.mapPixels(transform: (argb: Int) -> Int): FastImage {
+    val image = newFrame(width, height)
+    val src = pixels
+    val dst = image.pixels
+    forEachRow { _, offset ->
+        for (i in offset..offset + width - 1) {
+            dst[i] = transform(src[i])
+        }
+    }
+    return image
+}
+
+/**
+ * Builds a [width] x [height] image by asking [pixel] for the value at each coordinate.
+ */
+inline fun generateImage(width: Int, height: Int, pixel: (x: Int, y: Int) -> Int): FastImage {
+    val image = newFrame(width, height)
+    val dst = image.pixels
+    image.forEachRow { y, offset ->
+        for (x in 0..width - 1) {
+            dst[offset + x] = pixel(x, y)
+        }
+    }
+    return image
+}
@@ -15,8 +15,16 @@ class GlobalContextMenu(menuActions: MenuActions) : ContextMenu() {
         val menuFullScreen = MenuItem("Toggle full screen")
         menuFullScreen.onAction = EventHandler { actionEvent -> menuActions.toggleFullScreen(actionEvent) }
 
+        val menuMetrics = MenuItem("Toggle node metrics")
+        menuMetrics.onAction = EventHandler { actionEvent -> menuActions.toggleMetrics(actionEvent) }
+
+        val menuTrace = MenuItem("Export timeline...")
+        menuTrace.onAction = EventHandler { actionEvent -> menuActions.exportTimeline(actionEvent) }
+
         val menuQuit = MenuItem("Quit")
         menuQuit.onAction = EventHandler { actionEvent -> menuActions.onQuit(actionEvent) }
 
+        items.addAll(menuFullScreen, menuMetrics, menuTrace, menuQuit)
+
     }
 }
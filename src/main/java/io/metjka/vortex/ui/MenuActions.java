@@ -1,14 +1,30 @@
 package io.metjka.vortex.ui;
 
+import io.metjka.vortex.ui.serialize.Exporter;
+import io.metjka.vortex.ui.serialize.Importer;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
+import javafx.scene.control.Alert;
 import javafx.scene.control.MenuItem;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.input.KeyCombination;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.stage.Window;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -17,6 +33,9 @@ import java.util.Optional;
  * menu actions
  */
 public class MenuActions {
+    private static final String VORT_EXTENSION = "vort";
+    private static final String JSON_EXTENSION = "json";
+
     private final TopLevelPane topLevelPane;
     /**
      * The main overlay of which this menu is a part
@@ -61,18 +80,18 @@ public class MenuActions {
 
         MenuItem menuOpen = new MenuItem("Open...");
         menuOpen.setAccelerator(new KeyCodeCombination(KeyCode.O, KeyCombination.SHORTCUT_DOWN));
-//        menuOpen.setOnAction(this::onOpen);
+        menuOpen.setOnAction(this::onOpen);
         list.add(menuOpen);
 
-//        MenuItem menuSave = new MenuItem("Save");
-//        menuSave.setAccelerator(new KeyCodeCombination(KeyCode.S, KeyCombination.SHORTCUT_DOWN));
-//        menuSave.setOnAction(this::onSave);
-//        list.add(menuSave);
+        MenuItem menuSave = new MenuItem("Save");
+        menuSave.setAccelerator(new KeyCodeCombination(KeyCode.S, KeyCombination.SHORTCUT_DOWN));
+        menuSave.setOnAction(this::onSave);
+        list.add(menuSave);
 
-//        MenuItem menuSaveAs = new MenuItem("Save as...");
-//        menuSaveAs.setAccelerator(new KeyCodeCombination(KeyCode.S, KeyCombination.SHIFT_DOWN, KeyCombination.SHORTCUT_DOWN));
-//        menuSaveAs.setOnAction(this::onSaveAs);
-//        list.add(menuSaveAs);
+        MenuItem menuSaveAs = new MenuItem("Save as...");
+        menuSaveAs.setAccelerator(new KeyCodeCombination(KeyCode.S, KeyCombination.SHIFT_DOWN, KeyCombination.SHORTCUT_DOWN));
+        menuSaveAs.setOnAction(this::onSaveAs);
+        list.add(menuSaveAs);
 
         return list;
     }
@@ -92,62 +111,95 @@ public class MenuActions {
      *
      * @param actionEvent correspondign to the open request
      */
-//    protected void onOpen(ActionEvent actionEvent) {
-//        Window window = overlay.getScene().getWindow();
-//        File file = new FileChooser().showOpenDialog(window);
-
-//        if (file != null) {
-//            addChildrenFrom(file, topLevelPane);
-//        }
-//    }
-
-//    protected void onSave(ActionEvent actionEvent) {
-//        if (currentFile.isPresent()) {
-//            saveTo(currentFile.get());
-//        } else {
-//            onSaveAs(actionEvent);
-//        }
-//    }
-
-//    protected void onSaveAs(ActionEvent actionEvent) {
-//        Window window = overlay.getScene().getWindow();
-//        File file = new FileChooser().showSaveDialog(window);
-
-//        if (file != null) {
-//            saveTo(file);
-//            setFile(file);
-//        }
-//    }
-
-//    protected void addChildrenFrom(File file, TopLevelPane topLevelPane) {
-//        try (FileInputStream fis = new FileInputStream(file)) {
-//            Map<String, Object> layers = Importer.readLayers(fis);
-//            fis.close();
-//
-//            // check we can read this version of the serialized file format
-//            Integer fileFormatversion = ((Double)layers.get(ViskellFormat.VERSION_NUMBER_LABEL)).intValue();
-//            if (ViskellFormat.SUPPORTED_IMPORT_VERSIONS.contains(fileFormatversion)) {
-//                topLevelPane.fromBundle(layers);
-//            } else {
-//                // TODO show a dialog telling the user this version of the file cannot be read, list the versions
-//                // that it can read, and pointing them to where they can download a newer version of the app to read the version
-//                System.err.println("This version of the app cannot read files saved in format version: " + fileFormatversion);
-//            }
-//        } catch (IOException e) {
-//            // TODO do something sensible here - like show a dialog
-//            e.printStackTrace();
-//        }
-//    }
-
-//    protected void saveTo(File file) {
-//        try (FileOutputStream fos = new FileOutputStream(file)) {
-//            fos.write(Exporter.export(topLevelPane).getBytes(Charsets.UTF_8));
-//            fos.close();
-//        } catch (IOException e) {
-//            // TODO do something sensible here
-//            e.printStackTrace();
-//        }
-//    }
+    protected void onOpen(ActionEvent actionEvent) {
+        Window window = overlay.getScene().getWindow();
+        File file = fileChooser().showOpenDialog(window);
+
+        if (file != null) {
+            addChildrenFrom(file, topLevelPane);
+        }
+    }
+
+    protected void onSave(ActionEvent actionEvent) {
+        if (currentFile.isPresent()) {
+            saveTo(currentFile.get());
+        } else {
+            onSaveAs(actionEvent);
+        }
+    }
+
+    protected void onSaveAs(ActionEvent actionEvent) {
+        Window window = overlay.getScene().getWindow();
+        FileChooser chooser = fileChooser();
+        chooser.setInitialFileName("graph." + VORT_EXTENSION);
+        File file = chooser.showSaveDialog(window);
+
+        if (file != null && saveTo(file)) {
+            setFile(file);
+        }
+    }
+
+    /**
+     * Adds the graph in the file to the pane, or nothing at all if the file can't be read.
+     */
+    protected void addChildrenFrom(File file, TopLevelPane topLevelPane) {
+        try (InputStream input = new FileInputStream(file)) {
+            topLevelPane.fromBundle(Importer.INSTANCE.importBundle(input));
+        } catch (IOException | RuntimeException e) {
+            showError("Can't open " + file.getName(), e);
+        }
+    }
+
+    /**
+     * Saves as JSON when the file name asks for it, else in the binary format with thumbnails of the previews.
+     * The file is replaced in one go once the graph is written out, so a failed save leaves the old one alone.
+     *
+     * @return whether the graph was saved.
+     */
+    protected boolean saveTo(File file) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (file.getName().endsWith("." + JSON_EXTENSION)) {
+                bytes.write(Exporter.INSTANCE.export(topLevelPane, false).getBytes(StandardCharsets.UTF_8));
+            } else {
+                Exporter.INSTANCE.exportBinary(topLevelPane, bytes, true);
+            }
+
+            Path target = file.toPath().toAbsolutePath();
+            Path temporary = Files.createTempFile(target.getParent(), "." + file.getName(), ".tmp");
+            try {
+                Files.write(temporary, bytes.toByteArray());
+                try {
+                    Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            showError("Can't save " + file.getName(), e);
+            return false;
+        }
+    }
+
+    private void showError(String header, Exception e) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.initOwner(overlay.getScene().getWindow());
+        alert.setHeaderText(header);
+        alert.setContentText(e.getMessage() != null ? e.getMessage() : e.toString());
+        alert.showAndWait();
+    }
+
+    private static FileChooser fileChooser() {
+        FileChooser chooser = new FileChooser();
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Vortex graph", "*." + VORT_EXTENSION),
+                new FileChooser.ExtensionFilter("Vortex graph as JSON", "*." + JSON_EXTENSION));
+        return chooser;
+    }
+
     @SuppressWarnings("UnusedParameters")
     protected void toggleFullScreen(ActionEvent actionEvent) {
         Stage stage = VortApplication.Companion.getStagee();
@@ -159,6 +211,25 @@ public class MenuActions {
         }
     }
 
+    @SuppressWarnings("UnusedParameters")
+    protected void toggleMetrics(ActionEvent actionEvent) {
+        topLevelPane.setShowMetrics(!topLevelPane.getShowMetrics());
+    }
+
+    /**
+     * Saves the recent node runs as a Chrome trace, to be opened in chrome://tracing.
+     */
+    @SuppressWarnings("UnusedParameters")
+    protected void exportTimeline(ActionEvent actionEvent) {
+        FileChooser chooser = new FileChooser();
+        chooser.setInitialFileName("timeline.json");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Chrome trace", "*.json"));
+        File file = chooser.showSaveDialog(overlay.getScene().getWindow());
+        if (file != null) {
+            topLevelPane.getMetrics().exportTrace(file.getPath());
+        }
+    }
+
     @SuppressWarnings("UnusedParameters")
     protected void onQuit(ActionEvent actionEvent) {
         Platform.exit();
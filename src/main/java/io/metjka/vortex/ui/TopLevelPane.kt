@@ -1,10 +1,28 @@
 package io.metjka.vortex.ui
 
-import com.google.common.collect.ImmutableMap
+import io.metjka.vortex.graph.AddNode
+import io.metjka.vortex.graph.Graph
+import io.metjka.vortex.graph.GraphBundle
+import io.metjka.vortex.graph.GraphEvaluator
+import io.metjka.vortex.graph.GraphNode
+import io.metjka.vortex.graph.NodeTypes
+import io.metjka.vortex.graph.MetricsRegistry
+import io.metjka.vortex.graph.ResultCache
+import io.metjka.vortex.graph.SinkNode
+import io.metjka.vortex.graph.ValueNode
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.FramePool
+import io.metjka.vortex.ui.blocks.MathBlock
 import io.metjka.vortex.ui.blocks.NodeBlock
+import io.metjka.vortex.ui.blocks.NodeTestBlock
+import io.metjka.vortex.ui.blocks.ResultBlock
+import io.metjka.vortex.ui.blocks.ValueBlock
 import io.metjka.vortex.ui.connections.Connection
 import io.metjka.vortex.ui.connections.ConnectionDot
 import io.metjka.vortex.ui.serialize.Bundleable
+import io.metjka.vortex.ui.serialize.Thumbnails
+import io.metjka.vortex.ui.serialize.VortFormat
+import javafx.application.Platform
 import javafx.geometry.BoundingBox
 import javafx.geometry.Bounds
 import javafx.geometry.Point2D
@@ -15,6 +33,7 @@ import javafx.scene.shape.CubicCurve
 import javafx.scene.shape.Path
 import javafx.scene.shape.Shape
 import java.util.*
+import java.util.concurrent.Executor
 import java.util.stream.Collectors
 import java.util.stream.Stream
 
@@ -39,6 +58,34 @@ class TopLevelPane() : Region(), NodeBlockContainer, Bundleable {
      */
     private val attachedBlocks: MutableSet<NodeBlock>
 
+    /**
+     * The model behind the blocks on this pane.
+     */
+    val graph = Graph()
+
+    /**
+     * What every node evaluation cost, also published over JMX.
+     */
+    val metrics = MetricsRegistry().apply { register() }
+
+    /**
+     * Evaluates [graph] on a worker thread, with memoized results and recycled frames, and hands finished nodes back
+     * to their blocks on the FX thread. Edits from text fields and sliders are coalesced for [EDIT_DEBOUNCE_MILLIS],
+     * and previews come in from 1/8 resolution upwards.
+     */
+    val evaluator = GraphEvaluator(graph, Executor { Platform.runLater(it) },
+            cache = ResultCache(pool = FramePool()), debounceMillis = EDIT_DEBOUNCE_MILLIS, levels = GraphEvaluator.PROGRESSIVE,
+            metrics = metrics)
+
+    /**
+     * Whether blocks show what their node's last run cost.
+     */
+    var showMetrics = false
+        set(value) {
+            field = value
+            blockLayer.children.filterIsInstance<NodeBlock>().forEach { it.showMetrics(value) }
+        }
+
     /**
      * Constructs a new instance.
      */
@@ -76,6 +123,8 @@ class TopLevelPane() : Region(), NodeBlockContainer, Bundleable {
     fun removeBlock(block: NodeBlock) {
         block.deleteAllLinks()
         this.blockLayer.children.remove(block)
+        evaluator.forget(block.node)
+        graph.remove(block.node)
     }
 
     /**
@@ -91,6 +140,12 @@ class TopLevelPane() : Region(), NodeBlockContainer, Bundleable {
 
     fun addBlock(block: NodeBlock) {
         this.blockLayer.children.add(block)
+        graph.add(block.node)
+        block.showMetrics(showMetrics)
+        evaluator.observe(block.node) {
+            block.update()
+            block.updateMetrics()
+        }
     }
 
     fun addMenu(menu: Pane): Boolean {
@@ -147,53 +202,87 @@ class TopLevelPane() : Region(), NodeBlockContainer, Bundleable {
         return Stream.concat(blocks, wires)
     }
 
-    override fun toBundle(): Map<String, Any> {
-        val bundle = ImmutableMap.builder<String, Any>()
+    override fun toBundle(): Map<String, Any> = toBundle(false)
 
-        val blocks = this.blockLayer.children.stream()
+    /**
+     * The graph, with every block by its node id, kind and position.
+     *
+     * @param thumbnails whether blocks that show an image save a small copy of it, see [Thumbnails].
+     */
+    fun toBundle(thumbnails: Boolean): Map<String, Any> {
+        val ids = GraphBundle.ids(graph)
+        val blocks = blockLayer.children.filterIsInstance<NodeBlock>().map { block ->
+            val id = ids[block.node] ?: throw IllegalArgumentException("${block.node} is not part of the graph")
+            val entry = mutableMapOf<String, Any>(BLOCK_NODE to id, BLOCK_KIND to block.javaClass.simpleName,
+                    "x" to block.layoutX, "y" to block.layoutY)
+            block.thumbnail()?.takeIf { thumbnails }?.let {
+                val (factor, png) = Thumbnails.encode(it)
+                entry[THUMBNAIL] = png
+                entry[THUMBNAIL_LEVEL] = factor * block.node.level
+            }
+            entry
+        }
+        return GraphBundle.toBundle(graph) + mapOf(VortFormat.VERSION_NUMBER_LABEL to VortFormat.VERSION,
+                BLOCKS_SERIALIZED_NAME to blocks)
+    }
 
-        bundle.put(BLOCKS_SERIALIZED_NAME, blocks
-                .filter { n -> n is Bundleable }
-                .map { n -> (n as Bundleable).toBundle() }
-                .toArray())
+    /**
+     * Adds what [toBundle] saved to this pane, next to what is already there, and evaluates it. The whole bundle is
+     * checked first, so a file that can't be loaded leaves the pane as it was.
+     *
+     * @throws IllegalArgumentException when the bundle refers to node types, blocks or ports this build doesn't have,
+     * or doesn't hang together.
+     * @throws java.io.IOException when a thumbnail can't be decoded.
+     */
+    fun fromBundle(bundle: Map<String, Any?>) {
+        val (loaded, nodes) = try {
+            GraphBundle.fromBundle(bundle)
+        } catch (e: ClassCastException) {
+            throw IllegalArgumentException("Malformed graph: ${e.message}", e)
+        }
+        val placed = HashSet<GraphNode>()
+        val blocks = (bundle[BLOCKS_SERIALIZED_NAME] as? List<*>).orEmpty().map {
+            val entry = it as? Map<*, *> ?: throw IllegalArgumentException("Malformed block $it")
+            val node = (entry[BLOCK_NODE] as? Number)?.let { nodes[it.toInt()] } ?: throw IllegalArgumentException("No node ${entry[BLOCK_NODE]}")
+            val kind = BLOCK_KINDS[entry[BLOCK_KIND]] ?: throw IllegalArgumentException("Unknown block ${entry[BLOCK_KIND]}")
+            if (node.recipe?.type !in kind.types) {
+                throw IllegalArgumentException("A ${entry[BLOCK_KIND]} can't show a ${node.recipe?.type} node")
+            }
+            if (!placed.add(node)) {
+                throw IllegalArgumentException("Two blocks for node ${entry[BLOCK_NODE]}")
+            }
+            val x = entry["x"] as? Number ?: throw IllegalArgumentException("Block without a position")
+            val y = entry["y"] as? Number ?: throw IllegalArgumentException("Block without a position")
+            val level = (entry[THUMBNAIL_LEVEL] as? Number)?.toInt() ?: 1
+            val thumbnail = Thumbnails.decode(entry[THUMBNAIL])
+            val show: () -> NodeBlock = {
+                val block = kind.make(this, node)
+                addBlock(block)
+                block.relocate(x.toDouble(), y.toDouble())
+                thumbnail?.let { block.showThumbnail(it, level) }
+                block
+            }
+            show
+        }
 
-        bundle.put(CONNECTIONS_SERIALIZED_NAME, this.wireLayer.children.stream()
-                .filter { n -> n is Bundleable }
-                .map { n -> (n as Bundleable).toBundle() }
-                .toArray())
+        // from here on nothing depends on the file any more
+        val shown = blocks.map { it() }.associateBy { it.node }
+        // nodes without a block still compute for the ones that have one
+        nodes.values.filter { it !in shown }.forEach { graph.add(it) }
+        loaded.edges.forEach { edge ->
+            val from = shown[edge.from.node]?.getAllOutputs()?.firstOrNull { it.port === edge.from }
+            val to = shown[edge.to.node]?.getAllInputs()?.firstOrNull { it.port === edge.to }
+            if (from != null && to != null) {
+                addConnection(Connection(from, to))
+            } else {
+                graph.connect(edge.from, edge.to)
+            }
+        }
 
-        return bundle.build()
+        val fed = loaded.edges.mapTo(HashSet()) { it.to.node }
+        nodes.values.filter { it !in fed }.forEach { evaluator.evaluate(it) }
     }
 
-    //    public void fromBundle(Map<String, Object> layers) {
-    //        if (layers != null) {
-    //            Map<Integer, Block> blockLookupTable = new HashMap<>();
-    //            List<Map<String, Object>> blocksBundle = (ArrayList<Map<String, Object>>) layers.get(BLOCKS_SERIALIZED_NAME);
-    //            if (blocksBundle != null) {
-    //                for (Map<String, Object> bundle : blocksBundle) {
-    //                    Block block;
-    //                    try {
-    //                        block = Block.fromBundle(bundle, this, blockLookupTable);
-    //                        addBlock(block);
-    //                    } catch (Exception e) {
-    //                        e.printStackTrace();
-    //                    }
-    //                }
-    //            }
-    //
-    //            List<Map<String, Object>> connectionsBundle = (ArrayList<Map<String, Object>>) layers.get(CONNECTIONS_SERIALIZED_NAME);
-    //            if (connectionsBundle != null) {
-    //                for (Map<String, Object> bundle : connectionsBundle) {
-    //                    try {
-    //                        ConnectionDep.fromBundle(bundle, blockLookupTable);
-    //                    } catch (Exception e) {
-    //                        e.printStackTrace();
-    //                    }
-    //                }
-    //            }
-    //        }
-    //    }
-
     override fun containmentBoundsInScene(): Bounds {
         return this.localToScene(this.boundsInLocal)
     }
@@ -272,12 +361,42 @@ class TopLevelPane() : Region(), NodeBlockContainer, Bundleable {
         scaleY = scale * ratio
         translateX = translateX * ratio
         translateY = translateY * ratio
+
+        blockLayer.children.filterIsInstance<NodeTestBlock>().forEach { it.updateViewport() }
     }
 
     companion object {
 
         val BLOCKS_SERIALIZED_NAME = "Blocks"
-        val CONNECTIONS_SERIALIZED_NAME = "Connections"
+        val CONNECTIONS_SERIALIZED_NAME = GraphBundle.EDGES
+
+        private const val BLOCK_NODE = "node"
+        private const val BLOCK_KIND = "kind"
+        private const val THUMBNAIL = "thumbnail"
+        private const val THUMBNAIL_LEVEL = "thumbnailLevel"
+
+        /**
+         * A kind of block: the [NodeTypes] it can show and how to make one around a loaded node.
+         */
+        class BlockKind(val types: Set<String>, val make: (TopLevelPane, GraphNode) -> NodeBlock)
+
+        /**
+         * The kinds of block a saved graph can contain, by class name.
+         */
+        @Suppress("UNCHECKED_CAST")
+        val BLOCK_KINDS: Map<String, BlockKind> = mapOf(
+                MathBlock::class.java.simpleName to BlockKind(setOf("Add")) { pane, node -> MathBlock(pane, node as AddNode) },
+                ValueBlock::class.java.simpleName to BlockKind(setOf("Number")) { pane, node ->
+                    ValueBlock(pane, node as ValueNode<Number>)
+                },
+                ResultBlock::class.java.simpleName to BlockKind(setOf("Result")) { pane, node ->
+                    ResultBlock(pane, node as SinkNode<Number>)
+                },
+                NodeTestBlock::class.java.simpleName to BlockKind(setOf("Output")) { pane, node ->
+                    NodeTestBlock(pane, node as SinkNode<FastImage>)
+                })
+
+        const val EDIT_DEBOUNCE_MILLIS = 40L
     }
 
 
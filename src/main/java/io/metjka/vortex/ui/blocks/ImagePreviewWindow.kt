@@ -1,20 +1,69 @@
 package io.metjka.vortex.ui.blocks
 
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.FramePool
 import io.metjka.vortex.ui.loadXML
 import javafx.fxml.FXML
+import javafx.geometry.BoundingBox
 import javafx.scene.image.Image
 import javafx.scene.image.ImageView
 import javafx.scene.layout.StackPane
+import java.awt.Rectangle
 
-class ImagePreviewWindow(image: Image) : StackPane() {
+/**
+ * @param fit the largest side to show images at, 0 for their own size.
+ * @param pool where the frames passed to [show] come from, see [PreviewSink].
+ */
+class ImagePreviewWindow(image: Image? = null, val fit: Double = 0.0, pool: FramePool? = null) : StackPane() {
 
     @FXML
     var imageView: ImageView? = null
 
+    private val sink: PreviewSink?
+
     init {
         this.loadXML("ImagePreviewWindow")
+        imageView?.isPreserveRatio = true
         imageView?.image = image
+        sink = imageView?.let { PreviewSink(it, pool) }
+    }
+
+    /**
+     * Replaces the shown image with [image], a proxy shrunk by [level]. Proxies are stretched to the size of the
+     * full frame, so the preview sharpens in place instead of jumping around while the levels come in.
+     */
+    fun show(image: FastImage, level: Int = 1) {
+        val view = imageView ?: return
+        sink?.submit(image)
+        view.fitWidth = if (fit > 0) fit else image.width * level.toDouble()
+        view.fitHeight = if (fit > 0) fit else image.height * level.toDouble()
     }
 
+    /**
+     * The part of a [width] x [height] frame shown here that is inside the scene, `null` when all of it is,
+     * or none of it.
+     */
+    fun visibleRegion(width: Int, height: Int): Rectangle? {
+        val view = imageView ?: return null
+        val scene = view.scene ?: return null
+        val shown = view.localToScene(view.boundsInLocal)
+        if (BoundingBox(0.0, 0.0, scene.width, scene.height).contains(shown)) {
+            return null
+        }
+        val left = Math.max(shown.minX, 0.0)
+        val top = Math.max(shown.minY, 0.0)
+        val right = Math.min(shown.maxX, scene.width)
+        val bottom = Math.min(shown.maxY, scene.height)
+        if (right <= left || bottom <= top) {
+            return null
+        }
+        val scaleX = width / shown.width
+        val scaleY = height / shown.height
+        val x = Math.floor((left - shown.minX) * scaleX).toInt()
+        val y = Math.floor((top - shown.minY) * scaleY).toInt()
+        return Rectangle(x, y,
+                Math.ceil((right - shown.minX) * scaleX).toInt() - x,
+                Math.ceil((bottom - shown.minY) * scaleY).toInt() - y)
+    }
 
-}
\ No newline at end of file
+}
@@ -1,21 +1,23 @@
 package io.metjka.vortex.ui.blocks
 
+import io.metjka.vortex.graph.AddNode
+import io.metjka.vortex.graph.NodeTypes
 import io.metjka.vortex.ui.TopLevelPane
-import io.metjka.vortex.ui.Type
 import io.metjka.vortex.ui.connections.InputDot
 import io.metjka.vortex.ui.connections.OutputDot
 import javafx.fxml.FXML
 import javafx.scene.layout.Pane
 
-class MathBlock(topLevelPane: TopLevelPane) : NodeBlock(topLevelPane, MathBlock::class.simpleName) {
+class MathBlock(topLevelPane: TopLevelPane, override val node: AddNode = NodeTypes.create("Add") as AddNode) :
+        NodeBlock(topLevelPane, MathBlock::class.simpleName) {
 
     @FXML lateinit var outputSpace: Pane
     @FXML lateinit var inputSpace1: Pane
     @FXML lateinit var inputSpace2: Pane
 
-    val outputDot = OutputDot<Number>(this)
-    val inputDot1 = InputDot<Number>(this, Type.NUMBER)
-    val inputDot2 = InputDot<Number>(this, Type.NUMBER)
+    val outputDot = OutputDot(this, node.sum)
+    val inputDot1 = InputDot(this, node.left)
+    val inputDot2 = InputDot(this, node.right)
 
     init {
         outputSpace.children?.add(0, outputDot)
@@ -25,18 +27,10 @@ class MathBlock(topLevelPane: TopLevelPane) : NodeBlock(topLevelPane, MathBlock:
     }
 
     override fun update() {
-        if (inputDot1.connection.isPresent && inputDot2.connection.isPresent) {
-            val value1 = inputDot1.connection.get().startDot?.getValue() as Int?
-            val value2 = inputDot2.connection.get().startDot?.getValue() as Int?
-            if ((value1 != null) && (value2 != null)) {
-                val res = value1 + value2
-                outputDot.setValue(res)
-            }
-        }
 
     }
 
-    override fun getAllInputs(): List<InputDot<*>> = emptyList()
+    override fun getAllInputs(): List<InputDot<*>> = listOf(inputDot1, inputDot2)
 
     override fun getAllOutputs(): List<OutputDot<*>> = listOf(outputDot)
 
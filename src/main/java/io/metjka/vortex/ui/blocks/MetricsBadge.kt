@@ -0,0 +1,44 @@
+package io.metjka.vortex.ui.blocks
+
+import io.metjka.vortex.graph.NodeStats
+import javafx.geometry.Pos
+import javafx.scene.control.Label
+import javafx.scene.control.Tooltip
+import javafx.scene.layout.StackPane
+
+/**
+ * A small label in the corner of a [NodeBlock] with what the node's last run cost, and its totals as a tooltip.
+ */
+class MetricsBadge : Label() {
+
+    private val details = Tooltip()
+
+    init {
+        styleClass.add("metrics-badge")
+        tooltip = details
+        StackPane.setAlignment(this, Pos.TOP_RIGHT)
+    }
+
+    fun show(stats: NodeStats) {
+        val last = stats.last ?: return
+        text = when (last.cached) {
+            true -> "cached"
+            else -> "%.1f ms".format(last.wallNanos / 1e6)
+        }
+        styleClass.removeAll("failed")
+        if (last.failed) {
+            styleClass.add("failed")
+        }
+        details.text = "Last run: %.1f ms wall, %.1f ms cpu, %s allocated, %d -> %d pixels, 1/%d resolution\n".format(
+                last.wallNanos / 1e6, last.cpuNanos / 1e6, bytes(last.allocatedBytes), last.inputPixels,
+                last.outputPixels, last.level) +
+                "All %d runs: %.1f ms, %.2f ns/pixel, %d cache hits, %d misses".format(
+                        stats.runs, stats.wallNanos / 1e6, stats.nanosPerPixel, stats.hits, stats.misses)
+    }
+
+    private fun bytes(count: Long): String = when {
+        count >= 1 shl 20 -> "%.1f MB".format(count / 1048576.0)
+        count >= 1 shl 10 -> "%.1f KB".format(count / 1024.0)
+        else -> "$count B"
+    }
+}
@@ -1,5 +1,7 @@
 package io.metjka.vortex.ui.blocks
 
+import io.metjka.vortex.graph.GraphNode
+import io.metjka.vortex.precessing.FastImage
 import io.metjka.vortex.ui.TopLevelPane
 import io.metjka.vortex.ui.connections.ConnectionDot
 import io.metjka.vortex.ui.connections.InputDot
@@ -8,8 +10,11 @@ import io.metjka.vortex.ui.loadXML
 import javafx.geometry.BoundingBox
 import javafx.geometry.Bounds
 import javafx.scene.layout.StackPane
-import java.util.stream.Collectors
 
+/**
+ * On-screen face of a [GraphNode]. The block never computes anything itself: edits go into [node] and are
+ * evaluated by the pane's evaluator off the FX thread, and [update] is called back on the FX thread afterwards.
+ */
 abstract class NodeBlock(val topLevelPane: TopLevelPane, blockName: String?) : StackPane() {
 
     val dragContext: DragContext
@@ -29,8 +34,45 @@ abstract class NodeBlock(val topLevelPane: TopLevelPane, blockName: String?) : S
     abstract fun getAllInputs(): List<InputDot<*>>
     abstract fun getAllOutputs(): List<OutputDot<*>>
     abstract fun getNewCopy(): NodeBlock
+
+    abstract val node: GraphNode
+
+    private var badge: MetricsBadge? = null
+
+    /**
+     * Refreshes what the block shows from [node]. Runs on the FX thread after the node was evaluated.
+     */
     abstract fun update()
 
+    /**
+     * The image the block shows, if any, for saving along with the graph. [GraphNode.level] tells how much it is shrunk.
+     */
+    open fun thumbnail(): FastImage? = null
+
+    /**
+     * Shows a saved [thumbnail], shrunk by [level], until the node has been evaluated.
+     */
+    open fun showThumbnail(image: FastImage, level: Int) {
+    }
+
+    /**
+     * Shows or hides the cost of the node's last run in a corner of the block.
+     */
+    fun showMetrics(show: Boolean) {
+        if (show && badge == null) {
+            badge = MetricsBadge().also { children.add(it) }
+            updateMetrics()
+        } else if (!show) {
+            badge?.let { children.remove(it) }
+            badge = null
+        }
+    }
+
+    fun updateMetrics() {
+        val badge = badge ?: return
+        topLevelPane.metrics.stats(node)?.let { badge.show(it) }
+    }
+
     fun getBodyBounds(): Bounds? {
         val node = children.get(0)
         return node.localToScene(node.layoutBounds)
@@ -63,13 +105,11 @@ abstract class NodeBlock(val topLevelPane: TopLevelPane, blockName: String?) : S
         return true
     }
 
+    /**
+     * Re-evaluates [node] and everything downstream of it.
+     */
     fun sendUpdateDownStream() {
-        getAllOutputs().stream().flatMap {
-            return@flatMap it.getOppositeConnectionDots().stream()
-        }.collect(Collectors.toList())
-                .stream()
-                .distinct()
-                .forEach { it -> it.onUpdate() }
+        topLevelPane.evaluator.evaluate(node)
     }
 
     fun deleteAllLinks() {
@@ -1,26 +1,36 @@
 package io.metjka.vortex.ui.blocks
 
+import io.metjka.vortex.graph.NodeTypes
+import io.metjka.vortex.graph.SinkNode
 import io.metjka.vortex.precessing.FastImage
 import io.metjka.vortex.ui.TopLevelPane
-import io.metjka.vortex.ui.Type
 import io.metjka.vortex.ui.connections.InputDot
 import io.metjka.vortex.ui.connections.OutputDot
 import javafx.fxml.FXML
 import javafx.scene.layout.Pane
 
-class NodeTestBlock(topLevelPane: TopLevelPane) : NodeBlock(topLevelPane, NodeTestBlock::class.simpleName) {
+@Suppress("UNCHECKED_CAST")
+class NodeTestBlock(topLevelPane: TopLevelPane,
+                    override val node: SinkNode<FastImage> = NodeTypes.create("Output", "name" to "Preview") as SinkNode<FastImage>) :
+        NodeBlock(topLevelPane, NodeTestBlock::class.simpleName) {
 
     @FXML
     lateinit var inputSpace: Pane
 
-    val inputDot = InputDot<FastImage>(this, Type.IMAGE)
+    @FXML
+    lateinit var previewSpace: Pane
+
+    val inputDot = InputDot(this, node.input)
+
+    val preview = ImagePreviewWindow(fit = 150.0, pool = topLevelPane.evaluator.pool)
 
     init {
         inputSpace.children.add(0, inputDot)
+        previewSpace.children.add(preview)
     }
 
     override fun getAllInputs(): List<InputDot<*>> {
-        return emptyList()
+        return listOf(inputDot)
     }
 
     override fun getAllOutputs(): List<OutputDot<*>> {
@@ -28,7 +38,21 @@ class NodeTestBlock(topLevelPane: TopLevelPane) : NodeBlock(topLevelPane, NodeTe
     }
 
     override fun update() {
+        node.value?.let { preview.show(it, node.level) }
+    }
+
+    override fun thumbnail(): FastImage? = node.value
+
+    override fun showThumbnail(image: FastImage, level: Int) {
+        preview.show(image, level)
+    }
 
+    /**
+     * Tells the evaluator which part of the frame is on screen, so edits compute that part first.
+     */
+    fun updateViewport() {
+        val image = node.value ?: return
+        node.viewport = preview.visibleRegion(image.width * node.level, image.height * node.level)
     }
 
     override fun getNewCopy(): NodeBlock {
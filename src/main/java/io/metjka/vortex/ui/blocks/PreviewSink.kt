@@ -0,0 +1,112 @@
+package io.metjka.vortex.ui.blocks
+
+import io.metjka.vortex.jfr.Flight
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.FramePool
+import javafx.animation.AnimationTimer
+import javafx.scene.image.ImageView
+import javafx.scene.image.PixelFormat
+import javafx.scene.image.WritableImage
+
+/**
+ * Puts frames into [view] without a detour through AWT: the pixels go straight from [FastImage.pixels] into a
+ * [WritableImage]. Only the [tileSize] tiles whose pixels changed since the last upload are written, and at most once
+ * per pulse, so frames that come in faster than the display refreshes are skipped except for the latest one.
+ *
+ * Opaque tiles are handed over as premultiplied ARGB, which is what JavaFX keeps internally, so they are copied
+ * without any conversion. Everything here runs on the FX thread.
+ *
+ * @param pool where the frames come from; the waiting frame is retained so it can't be recycled before it is shown.
+ */
+class PreviewSink(val view: ImageView, val pool: FramePool? = null, val tileSize: Int = TILE_SIZE) {
+
+    private var pending: FastImage? = null
+    private var image: WritableImage? = null
+    private var tilesAcross = 0
+    private var hashes = LongArray(0)
+
+    var uploadedTiles = 0L
+        private set
+
+    var skippedFrames = 0L
+        private set
+
+    private val timer = object : AnimationTimer() {
+        override fun handle(now: Long) {
+            val frame = pending
+            pending = null
+            stop()
+            if (frame != null) {
+                try {
+                    upload(frame)
+                } finally {
+                    pool?.release(frame)
+                }
+            }
+        }
+    }
+
+    /**
+     * Shows [frame] from the next pulse on, replacing a frame that is still waiting.
+     */
+    fun submit(frame: FastImage) {
+        pool?.retain(frame)
+        pending?.let {
+            skippedFrames++
+            pool?.release(it)
+        }
+        pending = frame
+        timer.start()
+    }
+
+    private fun upload(frame: FastImage) {
+        val flight = Flight.uploadStarted()
+        val before = uploadedTiles
+        val current = image
+        val resized = current == null || current.width.toInt() != frame.width || current.height.toInt() != frame.height
+        val target = if (current != null && !resized) current else WritableImage(frame.width, frame.height).also {
+            image = it
+            tilesAcross = (frame.width + tileSize - 1) / tileSize
+            hashes = LongArray(tilesAcross * ((frame.height + tileSize - 1) / tileSize))
+            view.image = it
+        }
+
+        val writer = target.pixelWriter
+        val pixels = frame.pixels
+        for (tileY in 0..frame.height - 1 step tileSize) {
+            val height = Math.min(tileSize, frame.height - tileY)
+            for (tileX in 0..frame.width - 1 step tileSize) {
+                val width = Math.min(tileSize, frame.width - tileX)
+                var hash = FNV_OFFSET
+                var alpha = -1
+                for (y in tileY..tileY + height - 1) {
+                    val offset = frame.rowOffset(y)
+                    for (i in offset + tileX..offset + tileX + width - 1) {
+                        hash = (hash xor pixels[i].toLong()) * FNV_PRIME
+                        alpha = alpha and pixels[i]
+                    }
+                }
+                val tile = tileX / tileSize + tileY / tileSize * tilesAcross
+                if (!resized && hashes[tile] == hash) {
+                    continue
+                }
+                hashes[tile] = hash
+                val format = if (alpha ushr 24 == 0xFF) PixelFormat.getIntArgbPreInstance() else PixelFormat.getIntArgbInstance()
+                writer.setPixels(tileX, tileY, width, height, format, pixels, frame.rowOffset(tileY) + tileX, frame.width)
+                uploadedTiles++
+            }
+        }
+        Flight.uploadFinished(flight, frame.width, frame.height, (uploadedTiles - before).toInt(), hashes.size, skippedFrames)
+    }
+
+    companion object {
+
+        /**
+         * 128 x 128 pixels, small enough that a local change stays a small upload.
+         */
+        const val TILE_SIZE = 128
+
+        private const val FNV_OFFSET = -3750763034362895579L
+        private const val FNV_PRIME = 1099511628211L
+    }
+}
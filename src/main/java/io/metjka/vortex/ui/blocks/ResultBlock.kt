@@ -1,19 +1,23 @@
 package io.metjka.vortex.ui.blocks
 
+import io.metjka.vortex.graph.NodeTypes
+import io.metjka.vortex.graph.SinkNode
 import io.metjka.vortex.ui.TopLevelPane
-import io.metjka.vortex.ui.Type
 import io.metjka.vortex.ui.connections.InputDot
 import io.metjka.vortex.ui.connections.OutputDot
 import javafx.fxml.FXML
 import javafx.scene.control.TextField
 import javafx.scene.layout.Pane
 
-class ResultBlock(topLevelPane: TopLevelPane) : NodeBlock(topLevelPane, ResultBlock::class.simpleName) {
+@Suppress("UNCHECKED_CAST")
+class ResultBlock(topLevelPane: TopLevelPane,
+                  override val node: SinkNode<Number> = NodeTypes.create("Result") as SinkNode<Number>) :
+        NodeBlock(topLevelPane, ResultBlock::class.simpleName) {
 
     @FXML lateinit var inputSpace: Pane
     @FXML lateinit var numberInputTextField: TextField
 
-    val inputDot = InputDot<Number>(this, Type.NUMBER)
+    val inputDot = InputDot(this, node.input)
 
     init {
         inputSpace.children?.add(0, inputDot)
@@ -21,8 +25,7 @@ class ResultBlock(topLevelPane: TopLevelPane) : NodeBlock(topLevelPane, ResultBl
     }
 
     override fun update() {
-        val opositeConnectionDot = inputDot.getOpositeConnectionDot()
-        val value = opositeConnectionDot?.getValue() as Number?
+        val value = node.value
         if (value != null) {
             numberInputTextField.text = value.toString()
         }
@@ -1,5 +1,7 @@
 package io.metjka.vortex.ui.blocks
 
+import io.metjka.vortex.graph.NodeTypes
+import io.metjka.vortex.graph.ValueNode
 import io.metjka.vortex.ui.TopLevelPane
 import io.metjka.vortex.ui.connections.InputDot
 import io.metjka.vortex.ui.connections.OutputDot
@@ -7,20 +9,24 @@ import javafx.fxml.FXML
 import javafx.scene.control.TextField
 import javafx.scene.layout.Pane
 
-class ValueBlock(topLevelPane: TopLevelPane) : NodeBlock(topLevelPane, ValueBlock::class.simpleName) {
+@Suppress("UNCHECKED_CAST")
+class ValueBlock(topLevelPane: TopLevelPane,
+                 override val node: ValueNode<Number> = NodeTypes.create("Number") as ValueNode<Number>) :
+        NodeBlock(topLevelPane, ValueBlock::class.simpleName) {
 
     @FXML lateinit var outputSpace: Pane
     @FXML lateinit var numberInputTextField: TextField
 
-    val outputDot = OutputDot<Number>(this)
+    val outputDot = OutputDot(this, node.output)
 
     init {
         outputSpace.children?.add(0, outputDot)
-        numberInputTextField.text = 0.toString()
+        numberInputTextField.text = (node.value?.toInt() ?: 0).toString()
 
         numberInputTextField.textProperty().addListener { a, b, newValue ->
             if ("" != newValue) {
-                outputDot.setValue(newValue.toInt())
+                node.value = newValue.toInt()
+                sendUpdateDownStream()
             }
         }
     }
@@ -1,5 +1,6 @@
 package io.metjka.vortex.ui.connections
 
+import io.metjka.vortex.graph.Edge
 import io.metjka.vortex.ui.TopLevelPane
 import javafx.beans.value.ChangeListener
 import javafx.beans.value.ObservableValue
@@ -21,6 +22,11 @@ class Connection private constructor() : CubicCurve(), ChangeListener<Transform>
     var endDot: InputDot<*>? = null
     lateinit var topLevelPane: TopLevelPane
 
+    /**
+     * The edge this wire stands for in the pane's graph, `null` once removed.
+     */
+    var edge: Edge? = null
+
     init {
         stroke = Color.FORESTGREEN
         strokeWidth = 4.0
@@ -35,6 +41,7 @@ class Connection private constructor() : CubicCurve(), ChangeListener<Transform>
         startDot = start
         endDot = end
 
+        edge = topLevelPane.graph.connect(start!!.port, end!!.port)
         endDot?.connection = Optional.of(this)
         startDot?.addConnection(this)
 
@@ -56,7 +63,11 @@ class Connection private constructor() : CubicCurve(), ChangeListener<Transform>
         endDot?.removeConnections()
         topLevelPane.removeConnection(this)
 
-//        endDot?.onUpdate()
+        edge?.let {
+            edge = null
+            topLevelPane.graph.disconnect(it)
+            topLevelPane.evaluator.evaluate(it.to.node)
+        }
     }
 
     override fun changed(observable: ObservableValue<out Transform>?, oldValue: Transform?, newValue: Transform?) {
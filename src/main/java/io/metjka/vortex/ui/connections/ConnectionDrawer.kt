@@ -135,17 +135,27 @@ class ConnectionDrawer() : CubicCurve(), ChangeListener<Transform> {
                 }
                 inp = target as InputDot<*>
                 out = dot as OutputDot<*>
-
-                if (inp.hasConnection()) {
-                    inp.removeConnections()
-                }
             }
         }
 
-        if (inp?.block == out?.block) {
+        if (inp == null || out == null || inp.block == out.block) {
+            return null
+        }
+
+        if (inp.port.type != out.port.type) {
+            log.info("Can't connect ${out.port} to ${inp.port}, types differ")
             return null
         }
 
+        if (topLevelPane.graph.wouldCycle(out.port, inp.port)) {
+            log.info("Can't connect ${out.port} to ${inp.port}, it would close a cycle")
+            return null
+        }
+
+        if (inp.hasConnection()) {
+            inp.removeConnections()
+        }
+
         return Connection(out, inp)
     }
 
@@ -1,7 +1,7 @@
 package io.metjka.vortex.ui.connections
 
+import io.metjka.vortex.graph.InputPort
 import io.metjka.vortex.ui.NodeBlockContainer
-import io.metjka.vortex.ui.Type
 import io.metjka.vortex.ui.blocks.NodeBlock
 import io.metjka.vortex.ui.loadXML
 import javafx.fxml.FXML
@@ -9,7 +9,10 @@ import javafx.geometry.Point2D
 import javafx.scene.shape.Circle
 import java.util.*
 
-class InputDot<T>(block: NodeBlock, image: Type) : ConnectionDot(block), Target {
+/**
+ * Shows an [InputPort] of the block's node.
+ */
+class InputDot<T>(block: NodeBlock, val port: InputPort<T>) : ConnectionDot(block), Target {
     @FXML
     lateinit var circle: Circle
 
@@ -42,10 +45,6 @@ class InputDot<T>(block: NodeBlock, image: Type) : ConnectionDot(block), Target
         }
     }
 
-    fun onUpdate() {
-        block.update()
-    }
-
     override fun getAssociatedDot(): ConnectionDot = this
 
 }
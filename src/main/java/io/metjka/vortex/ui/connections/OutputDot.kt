@@ -1,5 +1,6 @@
 package io.metjka.vortex.ui.connections
 
+import io.metjka.vortex.graph.OutputPort
 import io.metjka.vortex.ui.NodeBlockContainer
 import io.metjka.vortex.ui.blocks.NodeBlock
 import io.metjka.vortex.ui.loadXML
@@ -8,12 +9,13 @@ import javafx.geometry.Point2D
 import javafx.scene.shape.Circle
 import java.util.*
 
-class OutputDot<T>(block: NodeBlock) : ConnectionDot(block), Target {
+/**
+ * Shows an [OutputPort] of the block's node; the value itself lives in the port.
+ */
+class OutputDot<T>(block: NodeBlock, val port: OutputPort<T>) : ConnectionDot(block), Target {
 
     @FXML lateinit var circle: Circle
 
-    var typedValue: T? = null
-
     val connections: MutableList<Connection> = mutableListOf()
 
     init {
@@ -59,17 +61,12 @@ class OutputDot<T>(block: NodeBlock) : ConnectionDot(block), Target {
         return this
     }
 
-    fun setValue(value: T) {
-        typedValue = value
-        block.sendUpdateDownStream()
-    }
-
     fun update() {
         block.sendUpdateDownStream()
     }
 
     fun getValue(): T? {
-        return typedValue
+        return port.value
     }
 
     override fun hasConnection(): Boolean {
@@ -0,0 +1,206 @@
+package io.metjka.vortex.ui.serialize
+
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+
+/**
+ * The compact form of a bundle: [MAGIC], the format version, then the bundle as a tree of tagged values.
+ *
+ * Whole numbers are zigzag varints, so ids and table entries take a byte or two. Every string is written once
+ * and referred to by its index afterwards, which turns the keys and type names repeated on thousands of nodes
+ * into single bytes. Float arrays (kernels), int arrays (lookup tables) and byte arrays (thumbnails) are stored
+ * as such and come back as arrays rather than lists.
+ */
+object BinaryFormat {
+
+    val MAGIC = byteArrayOf('V'.toByte(), 'O'.toByte(), 'R'.toByte(), 'T'.toByte())
+
+    private const val NULL = 0
+    private const val FALSE = 1
+    private const val TRUE = 2
+    private const val INTEGER = 3
+    private const val DOUBLE = 4
+    private const val STRING = 5
+    private const val STRING_REF = 6
+    private const val LIST = 7
+    private const val MAP = 8
+    private const val FLOATS = 9
+    private const val INTS = 10
+    private const val BYTES = 11
+
+    fun write(bundle: Map<String, Any?>, output: OutputStream, version: Int = VortFormat.VERSION) {
+        val out = DataOutputStream(BufferedOutputStream(output))
+        out.write(MAGIC)
+        writeVarint(out, version.toLong())
+        Writer(out).value(bundle)
+        out.flush()
+    }
+
+    /**
+     * @return the version the bundle was written with, and the bundle.
+     */
+    fun read(input: InputStream): Pair<Int, Map<String, Any?>> {
+        val data = DataInputStream(if (input is BufferedInputStream) input else BufferedInputStream(input))
+        val magic = ByteArray(MAGIC.size)
+        data.readFully(magic)
+        if (!magic.contentEquals(MAGIC)) {
+            throw IOException("Not a VORT graph")
+        }
+        val version = readVarint(data).toInt()
+        if (version !in VortFormat.SUPPORTED_IMPORT_VERSIONS) {
+            throw IOException("Can't read format version $version, only ${VortFormat.SUPPORTED_IMPORT_VERSIONS}")
+        }
+        @Suppress("UNCHECKED_CAST")
+        val bundle = Reader(data).value() as? Map<String, Any?> ?: throw IOException("A graph file holds a map")
+        return Pair(version, bundle)
+    }
+
+    private class Writer(val out: DataOutputStream) {
+
+        val strings = HashMap<String, Int>()
+
+        fun value(value: Any?) {
+            when (value) {
+                null -> out.writeByte(NULL)
+                is Boolean -> out.writeByte(if (value) TRUE else FALSE)
+                is Int, is Long, is Short, is Byte -> {
+                    out.writeByte(INTEGER)
+                    writeVarint(out, zigzag((value as Number).toLong()))
+                }
+                is Number -> {
+                    out.writeByte(DOUBLE)
+                    out.writeDouble(value.toDouble())
+                }
+                is String -> string(value)
+                is FloatArray -> {
+                    out.writeByte(FLOATS)
+                    writeVarint(out, value.size.toLong())
+                    value.forEach { out.writeFloat(it) }
+                }
+                is IntArray -> {
+                    out.writeByte(INTS)
+                    writeVarint(out, value.size.toLong())
+                    value.forEach { writeVarint(out, zigzag(it.toLong())) }
+                }
+                is ByteArray -> {
+                    out.writeByte(BYTES)
+                    writeVarint(out, value.size.toLong())
+                    out.write(value)
+                }
+                is Map<*, *> -> {
+                    out.writeByte(MAP)
+                    writeVarint(out, value.size.toLong())
+                    value.forEach {
+                        string(it.key as? String ?: throw IllegalArgumentException("Map keys must be strings: ${it.key}"))
+                        value(it.value)
+                    }
+                }
+                is Collection<*> -> list(value)
+                is Array<*> -> list(value.asList())
+                else -> throw IllegalArgumentException("Can't save ${value.javaClass.name}")
+            }
+        }
+
+        fun list(values: Collection<*>) {
+            out.writeByte(LIST)
+            writeVarint(out, values.size.toLong())
+            values.forEach { value(it) }
+        }
+
+        fun string(value: String) {
+            val index = strings[value]
+            if (index != null) {
+                out.writeByte(STRING_REF)
+                writeVarint(out, index.toLong())
+                return
+            }
+            strings[value] = strings.size
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            out.writeByte(STRING)
+            writeVarint(out, bytes.size.toLong())
+            out.write(bytes)
+        }
+    }
+
+    private class Reader(val data: DataInputStream) {
+
+        val strings = ArrayList<String>()
+
+        fun value(): Any? {
+            val tag = data.readUnsignedByte()
+            return when (tag) {
+                NULL -> null
+                FALSE -> false
+                TRUE -> true
+                INTEGER -> {
+                    val value = unzigzag(readVarint(data))
+                    if (value.toInt().toLong() == value) value.toInt() else value
+                }
+                DOUBLE -> data.readDouble()
+                STRING -> {
+                    val bytes = ByteArray(count())
+                    data.readFully(bytes)
+                    String(bytes, Charsets.UTF_8).also { strings.add(it) }
+                }
+                STRING_REF -> strings.getOrNull(count()) ?: throw IOException("Broken string reference")
+                LIST -> {
+                    val count = count()
+                    ArrayList<Any?>(count).apply { repeat(count) { add(value()) } }
+                }
+                MAP -> {
+                    val count = count()
+                    val map = LinkedHashMap<String, Any?>(count * 4 / 3 + 1)
+                    repeat(count) {
+                        val key = value() as? String ?: throw IOException("Map keys must be strings")
+                        map[key] = value()
+                    }
+                    map
+                }
+                FLOATS -> FloatArray(count()) { data.readFloat() }
+                INTS -> IntArray(count()) { unzigzag(readVarint(data)).toInt() }
+                BYTES -> ByteArray(count()).also { data.readFully(it) }
+                else -> throw IOException("Unknown tag $tag")
+            }
+        }
+
+        fun count(): Int {
+            val count = readVarint(data)
+            if (count < 0 || count > Int.MAX_VALUE) {
+                throw IOException("Broken length $count")
+            }
+            return count.toInt()
+        }
+    }
+
+    private fun zigzag(value: Long): Long = (value shl 1) xor (value shr 63)
+
+    private fun unzigzag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+    private fun writeVarint(out: DataOutputStream, value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            out.writeByte(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        out.writeByte(v.toInt())
+    }
+
+    private fun readVarint(data: DataInputStream): Long {
+        var value = 0L
+        var shift = 0
+        while (shift < 64) {
+            val b = data.readUnsignedByte()
+            value = value or ((b and 0x7F).toLong() shl shift)
+            if (b and 0x80 == 0) {
+                return value
+            }
+            shift += 7
+        }
+        throw IOException("Broken varint")
+    }
+}
@@ -1,11 +1,21 @@
 package io.metjka.vortex.ui.serialize
 
 import io.metjka.vortex.ui.TopLevelPane
+import java.io.OutputStream
 
+/**
+ * Saves what is on a [TopLevelPane], in two forms of the same bundle: compact binary for fast loading, see
+ * [BinaryFormat], and JSON for reading and diffing. [Importer] reads both.
+ */
 object Exporter {
 
-    fun export(topLevelPane: TopLevelPane) {
+    /**
+     * The pane as JSON.
+     */
+    fun export(topLevelPane: TopLevelPane, thumbnails: Boolean = false): String =
+            VortFormat.gson.toJson(topLevelPane.toBundle(thumbnails))
 
+    fun exportBinary(topLevelPane: TopLevelPane, output: OutputStream, thumbnails: Boolean = false) {
+        BinaryFormat.write(topLevelPane.toBundle(thumbnails), output)
     }
-
 }
@@ -1,11 +1,38 @@
 package io.metjka.vortex.ui.serialize
 
+import java.io.BufferedInputStream
+import java.io.IOException
 import java.io.InputStream
+import java.io.InputStreamReader
 
+/**
+ * Reads a saved graph back into a bundle, see [io.metjka.vortex.ui.TopLevelPane.fromBundle]. Both forms the
+ * [Exporter] writes are accepted: the binary one is told apart by its magic bytes.
+ */
 object Importer {
 
-    fun import(inputStream: InputStream) {
+    /**
+     * @throws IOException when the file is neither form, or of a version this build can't read.
+     */
+    @JvmName("importBundle")
+    @Throws(IOException::class)
+    fun import(inputStream: InputStream): Map<String, Any?> {
+        val input = BufferedInputStream(inputStream)
+        input.mark(BinaryFormat.MAGIC.size)
+        val head = ByteArray(BinaryFormat.MAGIC.size)
+        val read = input.read(head)
+        input.reset()
+        if (read == head.size && head.contentEquals(BinaryFormat.MAGIC)) {
+            return BinaryFormat.read(input).second
+        }
 
+        @Suppress("UNCHECKED_CAST")
+        val bundle = VortFormat.gson.fromJson(InputStreamReader(input, Charsets.UTF_8), Map::class.java) as Map<String, Any?>?
+                ?: throw IOException("Empty graph file")
+        val version = (bundle[VortFormat.VERSION_NUMBER_LABEL] as? Number)?.toInt()
+        if (version !in VortFormat.SUPPORTED_IMPORT_VERSIONS) {
+            throw IOException("Can't read format version $version, only ${VortFormat.SUPPORTED_IMPORT_VERSIONS}")
+        }
+        return bundle
     }
-
-}
\ No newline at end of file
+}
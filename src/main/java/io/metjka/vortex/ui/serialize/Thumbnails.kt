@@ -0,0 +1,41 @@
+package io.metjka.vortex.ui.serialize
+
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.downsample
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.Base64
+import javax.imageio.ImageIO
+
+/**
+ * Small PNG previews saved along with a graph, so that a loaded graph shows something before it is evaluated.
+ */
+object Thumbnails {
+
+    /**
+     * Longest side of a thumbnail, give or take the rounding of the shrink factor.
+     */
+    const val SIZE = 128
+
+    /**
+     * [image] shrunk by a whole factor to about [size] and encoded as PNG, together with that factor.
+     */
+    fun encode(image: FastImage, size: Int = SIZE): Pair<Int, ByteArray> {
+        val factor = Math.max(1, Math.max(image.width, image.height) / size)
+        val bytes = ByteArrayOutputStream()
+        ImageIO.write(image.downsample(factor).toBufferedImage(), "png", bytes)
+        return Pair(factor, bytes.toByteArray())
+    }
+
+    /**
+     * Decodes what [encode] made, as bytes from a binary file or base64 from a JSON one.
+     */
+    fun decode(value: Any?): FastImage? {
+        val bytes = when (value) {
+            is ByteArray -> value
+            is String -> Base64.getDecoder().decode(value)
+            else -> return null
+        }
+        return ImageIO.read(ByteArrayInputStream(bytes))?.let { FastImage(it) }
+    }
+}
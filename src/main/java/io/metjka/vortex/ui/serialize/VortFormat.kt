@@ -0,0 +1,32 @@
+package io.metjka.vortex.ui.serialize
+
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonPrimitive
+import com.google.gson.JsonSerializer
+import java.util.Base64
+
+/**
+ * Versions of the saved graph format, and the JSON flavour of it.
+ */
+object VortFormat {
+
+    const val VERSION_NUMBER_LABEL = "Version"
+
+    /**
+     * 1: nodes by recipe, edges by port name, blocks by kind and position, optional PNG thumbnails.
+     */
+    const val VERSION = 1
+
+    val SUPPORTED_IMPORT_VERSIONS = setOf(1)
+
+    /**
+     * Pretty printed so that saved graphs diff well; thumbnails go in as base64 strings.
+     */
+    val gson: Gson = GsonBuilder()
+            .setPrettyPrinting()
+            .registerTypeAdapter(ByteArray::class.java, JsonSerializer<ByteArray> { bytes, _, _ ->
+                JsonPrimitive(Base64.getEncoder().encodeToString(bytes))
+            })
+            .create()
+}
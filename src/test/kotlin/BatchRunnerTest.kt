@@ -0,0 +1,104 @@
+import com.google.gson.Gson
+import io.metjka.vortex.batch.BatchRunner
+import io.metjka.vortex.graph.Graph
+import io.metjka.vortex.graph.GraphBundle
+import io.metjka.vortex.graph.ImageNode
+import io.metjka.vortex.graph.NodeTypes
+import io.metjka.vortex.graph.SinkNode
+import io.metjka.vortex.graph.ValueNode
+import io.metjka.vortex.precessing.FastImage
+import org.junit.Assert
+import org.junit.Test
+import java.awt.image.BufferedImage
+import java.io.File
+import java.nio.file.Files
+import javax.imageio.ImageIO
+
+class BatchRunnerTest {
+
+    fun invertGraph(): Map<*, *> {
+        val graph = Graph()
+        val input = NodeTypes.create("Input")
+        val brightness = NodeTypes.create("Brightness", "value" to 0)
+        val invert = NodeTypes.create("Invert")
+        val output = NodeTypes.create("Output")
+        listOf(input, brightness, invert, output).forEach { graph.add(it) }
+        graph.connect((input as ValueNode<*>).output, (brightness as ImageNode).input)
+        graph.connect(brightness.output, (invert as ImageNode).input)
+        graph.connect(invert.output, (output as SinkNode<*>).input)
+        // through JSON, as it would come from a file
+        return Gson().fromJson(Gson().toJson(GraphBundle.toBundle(graph)), Map::class.java)
+    }
+
+    @Test
+    fun bundlesMakeTheSameGraphAgain() {
+        val (graph, nodes) = GraphBundle.fromBundle(invertGraph())
+        Assert.assertEquals(listOf("Input", "Brightness", "Invert", "Output"), (0..3).map { nodes[it]!!.recipe!!.type })
+        Assert.assertEquals(3, graph.edges.size)
+        Assert.assertEquals(0, nodes[1]!!.recipe!!.int("value"))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun graphsWithoutAnOutputFailBeforeAnyImage() {
+        val graph = Graph()
+        graph.add(NodeTypes.create("Input"))
+        val directory = Files.createTempDirectory("vortex-batch").toFile()
+        try {
+            BatchRunner(GraphBundle.toBundle(graph), File(directory, "out"))
+                    .run(sequenceOf(File(directory, "missing.png")))
+        } finally {
+            Assert.assertFalse(File(directory, "out").exists())
+            directory.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun everyImageGoesThroughTheGraph() {
+        val directory = Files.createTempDirectory("vortex-batch").toFile()
+        val input = File(directory, "in").apply { mkdirs() }
+        val output = File(directory, "out")
+        for (i in 0..6) {
+            val image = FastImage(8 + i, 4, IntArray((8 + i) * 4) { 0xFF000000.toInt() or (it * 0x010203) })
+            ImageIO.write(image.toBufferedImage(), "png", File(input, "image$i.png"))
+        }
+        File(input, "broken.png").writeText("not an image")
+
+        val summary = BatchRunner.inputs("${input.path}/*.png").use { files ->
+            BatchRunner(invertGraph(), output, workers = 2, depth = 3).run(files.iterator().asSequence().map { it.toFile() })
+        }
+
+        Assert.assertEquals(7, summary.images)
+        Assert.assertEquals(1, summary.failed)
+        Assert.assertEquals((0..6).sumBy { (8 + it) * 4 }.toLong(), summary.pixels)
+        val result = FastImage(ImageIO.read(File(output, "image3.png")))
+        Assert.assertEquals(11, result.width)
+        Assert.assertEquals(0xFF000000.toInt() or (0xFFFFFF - 5 * 0x010203), result.pixels[5])
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun outputsKeepTheFoldersOfTheInputs() {
+        val directory = Files.createTempDirectory("vortex-batch").toFile()
+        val input = File(directory, "in")
+        val output = File(directory, "out")
+        // without alpha, which JPEG can't store
+        val image = BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB)
+        for (path in listOf("2016/DSC_0001.png", "2017/DSC_0001.png", "2017/a.png", "2017/a.jpg")) {
+            val file = File(input, path).apply { parentFile.mkdirs() }
+            Assert.assertTrue(ImageIO.write(image, file.extension, file))
+        }
+
+        val pattern = "${input.path}/**/*.{png,jpg}"
+        val summary = BatchRunner.inputs(pattern).use { files ->
+            BatchRunner(invertGraph(), output, workers = 2).run(files.iterator().asSequence().map { it.toFile() },
+                    BatchRunner.root(pattern).toFile())
+        }
+
+        Assert.assertEquals(3, summary.images)
+        Assert.assertEquals(1, summary.failed)
+        Assert.assertTrue(File(output, "2016/DSC_0001.png").isFile)
+        Assert.assertTrue(File(output, "2017/DSC_0001.png").isFile)
+        Assert.assertTrue(File(output, "2017/a.png").isFile)
+        directory.deleteRecursively()
+    }
+}
@@ -0,0 +1,25 @@
+import io.metjka.vortex.precessing.*
+import org.junit.Assert
+import org.junit.Test
+import java.awt.Color
+
+class ColorHelperTest {
+
+    @Test
+    fun packMatchesAwtColor() {
+        for (value in intArrayOf(0, 1, 127, 128, 254, 255)) {
+            Assert.assertEquals(Color(value, 255 - value, value / 2).rgb, rgb(value, 255 - value, value / 2))
+        }
+    }
+
+    @Test
+    fun unpackMatchesAwtColor() {
+        val argb = 0x80FF7F01.toInt()
+        val color = Color(argb, true)
+        Assert.assertEquals(color.alpha, argb.alpha())
+        Assert.assertEquals(color.red, argb.red())
+        Assert.assertEquals(color.green, argb.green())
+        Assert.assertEquals(color.blue, argb.blue())
+    }
+
+}
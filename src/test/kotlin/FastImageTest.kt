@@ -0,0 +1,71 @@
+import io.metjka.vortex.precessing.FastImage
+import org.junit.Assert
+import org.junit.Test
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferInt
+import java.util.Random
+
+class FastImageTest {
+
+    val random = Random(23)
+
+    fun randomImage(type: Int, width: Int = 13, height: Int = 7): BufferedImage {
+        val image = BufferedImage(width, height, type)
+        for (y in 0..height - 1) {
+            for (x in 0..width - 1) {
+                image.setRGB(x, y, random.nextInt())
+            }
+        }
+        return image
+    }
+
+    fun assertSamePixels(expected: BufferedImage, actual: FastImage) {
+        for (y in 0..expected.height - 1) {
+            for (x in 0..expected.width - 1) {
+                Assert.assertEquals(expected.getRGB(x, y), actual.getARGB(x, y))
+            }
+        }
+    }
+
+    @Test
+    fun intArgbIsAdopted() {
+        val image = randomImage(BufferedImage.TYPE_INT_ARGB)
+        val fast = FastImage(image)
+        Assert.assertSame((image.raster.dataBuffer as DataBufferInt).data, fast.pixels)
+        assertSamePixels(image, fast)
+    }
+
+    @Test
+    fun intRgbIsAdoptedOpaque() {
+        val image = randomImage(BufferedImage.TYPE_INT_RGB)
+        val fast = FastImage(image)
+        Assert.assertSame((image.raster.dataBuffer as DataBufferInt).data, fast.pixels)
+        assertSamePixels(image, fast)
+    }
+
+    @Test
+    fun bytesArePacked() {
+        for (type in listOf(BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR)) {
+            val image = randomImage(type)
+            assertSamePixels(image, FastImage(image))
+            assertSamePixels(image.getSubimage(3, 2, 6, 4), FastImage(image.getSubimage(3, 2, 6, 4)))
+        }
+    }
+
+    @Test
+    fun subimagesAreCopied() {
+        val image = randomImage(BufferedImage.TYPE_INT_ARGB)
+        val part = image.getSubimage(2, 1, 5, 5)
+        assertSamePixels(part, FastImage(part))
+    }
+
+    @Test
+    fun exportSharesPixels() {
+        val fast = FastImage(13, 7, IntArray(13 * 7) { random.nextInt() })
+        val exported = fast.toBufferedImage()
+        assertSamePixels(exported, fast)
+        fast.setARGB(1, 1, 0x12345678)
+        Assert.assertEquals(0x12345678, exported.getRGB(1, 1))
+        Assert.assertSame(fast.pixels, FastImage(exported).pixels)
+    }
+}
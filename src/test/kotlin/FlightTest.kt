@@ -0,0 +1,53 @@
+import io.metjka.vortex.graph.*
+import io.metjka.vortex.jfr.Flight
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.FramePool
+import io.metjka.vortex.precessing.InvertFilter
+import io.metjka.vortex.ui.Type
+import jdk.jfr.Configuration
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordingFile
+import org.junit.Assert
+import org.junit.Test
+import java.io.InputStreamReader
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+class FlightTest {
+
+    @Test
+    fun eventsAreOffWithoutARecording() {
+        Assert.assertNull(Flight.nodeStarted())
+        Assert.assertNull(Flight.uploadStarted())
+    }
+
+    @Test
+    fun profileRecordsNodesAndFrames() {
+        val profile = javaClass.getResourceAsStream("/jfr/vort.jfc")
+        val configuration = Configuration.create(InputStreamReader(profile))
+        val file = Files.createTempFile("vort", ".jfr")
+
+        Recording(configuration).use { recording ->
+            recording.start()
+            val graph = Graph()
+            val evaluator = GraphEvaluator(graph, cache = ResultCache(budgetBytes = 600, pool = FramePool()))
+            val source = ValueNode<FastImage>(Type.IMAGE, FastImage(16, 8))
+            val invert = ImageNode("Invert", "invert") { InvertFilter(it).filter() }
+            graph.add(source)
+            graph.add(invert)
+            graph.connect(source.output, invert.input)
+            evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+            recording.stop()
+            recording.dump(file)
+        }
+
+        val events = RecordingFile.readAllEvents(file).groupBy { it.eventType.name }
+        Files.delete(file)
+        val nodes = events["io.metjka.vortex.NodeEvaluation"]!!
+        Assert.assertEquals(listOf("Value", "Invert"), nodes.map { it.getString("node") })
+        Assert.assertEquals(16, nodes[1].getInt("width"))
+        Assert.assertEquals(8, nodes[1].getInt("height"))
+        Assert.assertTrue(events.containsKey("io.metjka.vortex.FrameAcquire"))
+        Assert.assertTrue(events.containsKey("io.metjka.vortex.CacheEviction"))
+    }
+}
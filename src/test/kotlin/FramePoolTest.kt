@@ -0,0 +1,69 @@
+import io.metjka.vortex.graph.*
+import io.metjka.vortex.precessing.*
+import io.metjka.vortex.ui.Type
+import org.junit.Assert
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class FramePoolTest {
+
+    val pool = FramePool()
+
+    @Test
+    fun releasedFramesAreReused() {
+        val first = pool.obtain(16, 8)
+        first.pixels[3] = 42
+        pool.release(first)
+        val second = pool.obtain(16, 8)
+        Assert.assertSame(first.pixels, second.pixels)
+        Assert.assertEquals(0, second.pixels[3])
+        Assert.assertEquals(1, pool.stats().hits)
+    }
+
+    @Test
+    fun lastReleaseRecycles() {
+        val frame = pool.obtain(4, 4)
+        pool.retain(frame)
+        pool.retain(frame)
+        pool.release(frame)
+        Assert.assertNotSame(frame.pixels, pool.obtain(4, 4).pixels)
+        pool.release(frame)
+        Assert.assertSame(frame.pixels, pool.obtain(4, 4).pixels)
+    }
+
+    @Test
+    fun foreignImagesAreNeverRecycled() {
+        val image = FastImage(4, 4)
+        pool.release(image)
+        Assert.assertNotSame(image.pixels, pool.obtain(4, 4).pixels)
+    }
+
+    @Test
+    fun filtersDrawFromTheCurrentPool() {
+        val image = FastImage(32, 32, IntArray(32 * 32) { it })
+        val blurred = pool.runWith { Convolution(image).convolve(Convolution.GAUSSIAN3_BLUR) }
+        Assert.assertArrayEquals(Convolution(image).convolve(Convolution.GAUSSIAN3_BLUR).pixels, blurred.pixels)
+        Assert.assertEquals(1, pool.stats().obtained)
+    }
+
+    @Test
+    fun replacedOutputsGoBackToThePool() {
+        val graph = Graph()
+        val evaluator = GraphEvaluator(graph, cache = ResultCache(pool = pool))
+        val source = ValueNode<FastImage>(Type.IMAGE, FastImage(20, 10, IntArray(200) { it * 31 }))
+        val invert = ImageNode("Invert") { InvertFilter(it).filter() }
+        val preview = SinkNode<FastImage>(Type.IMAGE, "Preview")
+        listOf(source, invert, preview).forEach { graph.add(it) }
+        graph.connect(source.output, invert.input)
+        graph.connect(invert.output, preview.input)
+
+        for (i in 1..5) {
+            source.value = FastImage(20, 10, IntArray(200) { it * 31 + i })
+            evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+            Assert.assertEquals(InvertFilter(source.value!!).filter().pixels.toList(), preview.value!!.pixels.toList())
+        }
+        Assert.assertEquals(5, pool.stats().obtained)
+        // the new frame is made while the port still holds the old one, so two frames take turns
+        Assert.assertEquals(3, pool.stats().hits)
+    }
+}
@@ -0,0 +1,296 @@
+import io.metjka.vortex.graph.*
+import io.metjka.vortex.precessing.BrightnessFilter
+import io.metjka.vortex.precessing.ContrastFilter
+import io.metjka.vortex.precessing.Convolution
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.GrayFilter
+import io.metjka.vortex.precessing.GrayOp
+import io.metjka.vortex.precessing.InvertFilter
+import io.metjka.vortex.precessing.Kernel
+import io.metjka.vortex.precessing.SepiaFilter
+import io.metjka.vortex.precessing.downsample
+import io.metjka.vortex.ui.Type
+import org.junit.Assert
+import org.junit.Test
+import java.awt.Rectangle
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class GraphTest {
+
+    val graph = Graph()
+    val evaluator = GraphEvaluator(graph)
+
+    @Test
+    fun evaluatesDownstreamOffTheCallingThread() {
+        val a = ValueNode<Number>(Type.NUMBER, 2)
+        val b = ValueNode<Number>(Type.NUMBER, 3)
+        val add = AddNode()
+        val result = SinkNode<Number>(Type.NUMBER)
+        listOf(a, b, add, result).forEach { graph.add(it) }
+        graph.connect(a.output, add.left)
+        graph.connect(b.output, add.right)
+        graph.connect(add.sum, result.input)
+
+        val threads = mutableListOf<String>()
+        evaluator.observe(result) { threads.add(Thread.currentThread().name) }
+
+        evaluator.evaluate(a).get(5, TimeUnit.SECONDS)
+        Assert.assertNull(result.value)
+        evaluator.evaluate(b).get(5, TimeUnit.SECONDS)
+        Assert.assertEquals(5, result.value)
+        Assert.assertEquals(listOf("graph-evaluator", "graph-evaluator"), threads)
+    }
+
+    @Test
+    fun imagesFlowThroughFilters() {
+        val source = ValueNode<FastImage>(Type.IMAGE, FastImage(2, 1, intArrayOf(0xFF000000.toInt(), -1)))
+        val invert = ImageNode("Invert") { InvertFilter(it).filter() }
+        val preview = SinkNode<FastImage>(Type.IMAGE, "Preview")
+        listOf(source, invert, preview).forEach { graph.add(it) }
+        graph.connect(source.output, invert.input)
+        graph.connect(invert.output, preview.input)
+
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        Assert.assertArrayEquals(intArrayOf(-1, 0xFF000000.toInt()), preview.value!!.pixels)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun portTypesMustMatch() {
+        val image = ValueNode<FastImage>(Type.IMAGE)
+        val add = AddNode()
+        graph.add(image)
+        graph.add(add)
+        graph.connect(image.output, add.left)
+    }
+
+    @Test
+    fun failuresAreKeptOnTheNode() {
+        val source = ValueNode<FastImage>(Type.IMAGE, FastImage(1, 1, intArrayOf(0)))
+        val broken = ImageNode("Broken") { throw IllegalStateException("boom") }
+        graph.add(source)
+        graph.add(broken)
+        graph.connect(source.output, broken.input)
+
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        Assert.assertTrue(broken.error is IllegalStateException)
+    }
+
+    @Test
+    fun diamondRunsEachNodeOnceAfterBothBranches() {
+        val source = ValueNode<Number>(Type.NUMBER, 1)
+        val left = AddNode()
+        val right = AddNode()
+        val bottom = AddNode()
+        listOf(source, left, right, bottom).forEach { graph.add(it) }
+        graph.connect(source.output, left.left)
+        graph.connect(source.output, left.right)
+        graph.connect(source.output, right.left)
+        graph.connect(left.sum, right.right)
+        graph.connect(left.sum, bottom.left)
+        graph.connect(right.sum, bottom.right)
+
+        val runs = AtomicInteger()
+        val seen = mutableListOf<Number?>()
+        evaluator.observe(bottom) {
+            runs.incrementAndGet()
+            seen.add(bottom.sum.value)
+        }
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        source.value = 10
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+
+        Assert.assertEquals(2, runs.get())
+        Assert.assertEquals(listOf<Number?>(5, 50), seen)
+    }
+
+    @Test
+    fun cyclesAreRejected() {
+        val first = AddNode()
+        val second = AddNode()
+        graph.add(first)
+        graph.add(second)
+        graph.connect(first.sum, second.left)
+        Assert.assertTrue(graph.wouldCycle(second.sum, first.left))
+        Assert.assertTrue(graph.wouldCycle(first.sum, first.right))
+        Assert.assertFalse(graph.wouldCycle(first.sum, second.right))
+        try {
+            graph.connect(second.sum, first.left)
+            Assert.fail()
+        } catch (e: IllegalArgumentException) {
+            Assert.assertNull(first.left.source)
+        }
+    }
+
+    @Test
+    fun newerValuesCancelTheRunningPass() {
+        val debounced = GraphEvaluator(graph, debounceMillis = 20)
+        val started = CountDownLatch(1)
+        val source = ValueNode<FastImage>(Type.IMAGE, FastImage(64, 64, IntArray(64 * 64)))
+        val slow = ImageNode("Slow") {
+            started.countDown()
+            // a filter that would take forever unless it notices the cancellation between rows
+            var image = it
+            while (true) {
+                image = GrayOp.filter(image)
+            }
+            @Suppress("UNREACHABLE_CODE")
+            image
+        }
+        val preview = SinkNode<FastImage>(Type.IMAGE, "Preview")
+        listOf(source, slow, preview).forEach { graph.add(it) }
+        graph.connect(source.output, slow.input)
+        graph.connect(slow.output, preview.input)
+
+        val runs = AtomicInteger()
+        debounced.observe(preview) { runs.incrementAndGet() }
+        debounced.evaluate(source)
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS))
+
+        // swap in a fast filter; the slow pass has to give up for the new one to finish
+        graph.remove(slow)
+        val fast = ImageNode("Fast") { it }
+        graph.add(fast)
+        graph.connect(source.output, fast.input)
+        graph.connect(fast.output, preview.input)
+        for (i in 1..5) {
+            debounced.evaluate(source)
+        }
+        debounced.evaluate(source).get(5, TimeUnit.SECONDS)
+
+        Assert.assertNull(slow.error)
+        Assert.assertSame(source.value, preview.value)
+        Assert.assertEquals(1, runs.get())
+    }
+
+    @Test
+    fun burstsOfEditsBecomeOnePass() {
+        val metrics = MetricsRegistry()
+        val debounced = GraphEvaluator(graph, debounceMillis = 200, metrics = metrics)
+        val source = ValueNode<Double>(Type.NUMBER, 0.0)
+        graph.add(source)
+
+        // a drag that lasts longer than the wait, with each edit well inside it
+        for (i in 1..6) {
+            source.value = i.toDouble()
+            debounced.evaluate(source)
+            Thread.sleep(50)
+        }
+        debounced.evaluate(source).get(5, TimeUnit.SECONDS)
+
+        Assert.assertEquals(1, metrics.passes)
+    }
+
+    @Test
+    fun progressiveLevelsRunCoarseToFine() {
+        val progressive = GraphEvaluator(graph, levels = GraphEvaluator.PROGRESSIVE)
+        val source = ValueNode<FastImage>(Type.IMAGE, FastImage(64, 32, IntArray(64 * 32) { 0xFF808080.toInt() }))
+        val blur = ConvolutionNode(Kernel(9, 9, FloatArray(81) { 1f }))
+        val preview = SinkNode<FastImage>(Type.IMAGE, "Preview")
+        listOf(source, blur, preview).forEach { graph.add(it) }
+        graph.connect(source.output, blur.input)
+        graph.connect(blur.output, preview.input)
+
+        val sizes = mutableListOf<Pair<Int, Int>>()
+        progressive.observe(preview) { sizes.add(Pair(it.level, preview.value!!.width)) }
+        progressive.evaluate(source).get(5, TimeUnit.SECONDS)
+        Assert.assertEquals(listOf(Pair(8, 8), Pair(4, 16), Pair(2, 32), Pair(1, 64)), sizes)
+        Assert.assertEquals(0xFF808080.toInt(), preview.value!!.pixels[0])
+
+        // only the blur changes, the source keeps its full frame
+        sizes.clear()
+        progressive.evaluate(blur).get(5, TimeUnit.SECONDS)
+        Assert.assertEquals(listOf(Pair(8, 8), Pair(4, 16), Pair(2, 32), Pair(1, 64)), sizes)
+        Assert.assertEquals(64, source.output.value!!.width)
+    }
+
+    @Test
+    fun blurProxiesAreBlurredAsMuchAsTheFrame() {
+        val progressive = GraphEvaluator(graph, levels = GraphEvaluator.PROGRESSIVE)
+        val random = java.util.Random(3)
+        val image = FastImage(128, 128, IntArray(128 * 128) { random.nextInt() or 0xFF000000.toInt() })
+        val source = ValueNode<FastImage>(Type.IMAGE, image)
+        val blur = NodeTypes.create("Blur", "sigma" to 8.0) as ImageNode
+        val preview = SinkNode<FastImage>(Type.IMAGE, "Preview")
+        listOf(source, blur, preview).forEach { graph.add(it) }
+        graph.connect(source.output, blur.input)
+        graph.connect(blur.output, preview.input)
+
+        val proxies = mutableMapOf<Int, IntArray>()
+        progressive.observe(preview) { proxies[it.level] = preview.value!!.pixels.copyOf() }
+        progressive.evaluate(source).get(5, TimeUnit.SECONDS)
+        Assert.assertArrayEquals(Convolution.stackedGaussianBlur(image.downsample(8), 1.0).pixels, proxies[8])
+        Assert.assertArrayEquals(Convolution.stackedGaussianBlur(image, 8.0).pixels, proxies[1])
+    }
+
+    @Test
+    fun colourChainsRunAsOnePass() {
+        val cached = GraphEvaluator(graph, cache = ResultCache())
+        val random = java.util.Random(5)
+        val image = FastImage(40, 30, IntArray(40 * 30) { random.nextInt() })
+        val source = ValueNode<FastImage>(Type.IMAGE, image)
+        val chain = listOf(NodeTypes.create("Brightness", "value" to 20), NodeTypes.create("Gray"),
+                NodeTypes.create("Contrast", "value" to 10), NodeTypes.create("Sepia"), NodeTypes.create("Invert"))
+                .map { it as ImageNode }
+        val preview = SinkNode<FastImage>(Type.IMAGE, "Preview")
+        graph.add(source)
+        chain.forEach { graph.add(it) }
+        graph.add(preview)
+        graph.connect(source.output, chain[0].input)
+        chain.zipWithNext().forEach { graph.connect(it.first.output, it.second.input) }
+        graph.connect(chain.last().output, preview.input)
+        val tapped = mutableListOf<FastImage?>()
+        cached.observe(chain[2]) { tapped.add(chain[2].output.value) }
+
+        cached.evaluate(source).get(5, TimeUnit.SECONDS)
+        val contrasted = ContrastFilter(GrayFilter(BrightnessFilter(image, 20).filter()).filter(), 10).filter()
+        val expected = InvertFilter(SepiaFilter(contrasted).filter()).filter()
+        Assert.assertArrayEquals(expected.pixels, preview.value!!.pixels)
+        // frames only where something looks at them
+        Assert.assertEquals(listOf(null, null, contrasted.pixels.toList(), null, expected.pixels.toList()),
+                chain.map { it.output.value?.pixels?.toList() })
+        Assert.assertEquals(1, tapped.size)
+
+        // the frame-less nodes keep their digests, so changing the end of a chain only reruns that part
+        val darker = NodeTypes.create("Brightness", "value" to -20) as ImageNode
+        graph.remove(chain[4])
+        graph.add(darker)
+        graph.connect(chain[3].output, darker.input)
+        graph.connect(darker.output, preview.input)
+        cached.evaluate(darker).get(5, TimeUnit.SECONDS)
+        Assert.assertArrayEquals(BrightnessFilter(SepiaFilter(contrasted).filter(), -20).filter().pixels, preview.value!!.pixels)
+        Assert.assertEquals(1, tapped.size)
+    }
+
+    @Test
+    fun viewportIsComputedFirst() {
+        val pixels = IntArray(40 * 30) { it * 7919 or 0xFF000000.toInt() }
+        val source = ValueNode<FastImage>(Type.IMAGE, FastImage(40, 30, pixels))
+        val blur = ConvolutionNode(Kernel(5, 5, FloatArray(25) { 1f }))
+        val turn = RotationNode(30.0)
+        val preview = SinkNode<FastImage>(Type.IMAGE, "Preview")
+        listOf(source, blur, turn, preview).forEach { graph.add(it) }
+        graph.connect(source.output, blur.input)
+        graph.connect(blur.output, turn.input)
+        graph.connect(turn.output, preview.input)
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        val full = preview.value!!
+
+        val viewport = Rectangle(10, 12, 8, 6)
+        preview.viewport = viewport
+        val frames = mutableListOf<FastImage>()
+        evaluator.observe(preview) { frames.add(preview.value!!) }
+        evaluator.evaluate(blur).get(5, TimeUnit.SECONDS)
+
+        Assert.assertEquals(2, frames.size)
+        val first = frames[0]
+        for (y in 0..full.height - 1) {
+            for (x in 0..full.width - 1) {
+                val expected = if (viewport.contains(x, y)) full.pixels[full.rowOffset(y) + x] else 0
+                Assert.assertEquals(expected, first.pixels[first.rowOffset(y) + x])
+            }
+        }
+        Assert.assertArrayEquals(full.pixels, frames[1].pixels)
+    }
+}
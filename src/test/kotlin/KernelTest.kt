@@ -0,0 +1,118 @@
+import io.metjka.vortex.precessing.*
+import org.junit.Assert
+import org.junit.Test
+import java.util.Random
+
+class KernelTest {
+
+    val random = Random(5)
+    val image = FastImage(53, 31, IntArray(53 * 31) { random.nextInt() })
+
+    @Test
+    fun rankOneKernelsAreSeparable() {
+        Assert.assertNotNull(Convolution.GAUSSIAN3_BLUR.separate())
+        Assert.assertNotNull(Convolution.SOBEL_HORIZONTAL.separate())
+        Assert.assertNotNull(Convolution.SOBEL_VERTICAL.separate())
+        Assert.assertNull(Convolution.LAPLACE.separate())
+        Assert.assertNull(Convolution.BOX_BLUR.separate())
+    }
+
+    @Test
+    fun approximateSplitRespectsTolerance() {
+        Assert.assertNull(Convolution.KERNEL7.separate(0.05f))
+        val split = Convolution.KERNEL7.separate(0.2f)!!
+        Assert.assertTrue(split.error > 0f && split.error <= 0.2f)
+    }
+
+    @Test
+    fun separablePassesMatchDirectGather() {
+        for (kernel in listOf(Convolution.GAUSSIAN3_BLUR, Convolution.SOBEL_HORIZONTAL, Convolution.SOBEL_VERTICAL)) {
+            val direct = IntArray(image.pixels.size)
+            convolveDirect(image, kernel, 0.0, direct)
+            Assert.assertArrayEquals(direct, Convolution(image).convolve(kernel).pixels)
+        }
+    }
+
+    @Test
+    fun fftMatchesDirectGatherOnOddSizes() {
+        for (kernel in listOf(Convolution.GAUSSIAN5_BLUR, Convolution.LAPLACE, Convolution.KERNEL7)) {
+            val direct = IntArray(image.pixels.size)
+            convolveDirect(image, kernel, 0.0, direct)
+            Assert.assertArrayEquals(direct, Convolution(image, fftThreshold = 1).convolve(kernel).pixels)
+        }
+    }
+
+    @Test
+    fun fractionalKernelsGiveTheSameResultOnEveryEngine() {
+        val binomial = floatArrayOf(1f, 4f, 6f, 4f, 1f)
+        // normalized, the way Kernel.rescale and Kernel.fromImage make them; the second one isn't separable
+        val kernels = listOf(
+                Kernel(5, 5, FloatArray(25) { binomial[it % 5] * binomial[it / 5] / 256 }),
+                Kernel(3, 3, FloatArray(9) { if (it == 4) 0.36f else 0.08f }))
+        val flat = FastImage(53, 31, IntArray(53 * 31) { rgb(255, 128, 1) })
+        for (source in listOf(image, flat)) {
+            for (kernel in kernels) {
+                val direct = IntArray(source.pixels.size)
+                convolveDirect(source, kernel, 0.0, direct)
+                Assert.assertArrayEquals(direct, Convolution(source).convolve(kernel).pixels)
+                Assert.assertArrayEquals(direct, Convolution(source, fftThreshold = 1).convolve(kernel).pixels)
+            }
+            Assert.assertArrayEquals(source.pixels.map { it or OPAQUE }.toIntArray(),
+                    Convolution(source).convolve(Kernel(3, 3, FloatArray(9) { if (it == 4) 1f else 0f })).pixels)
+        }
+        val blurred = IntArray(flat.pixels.size)
+        convolveDirect(flat, kernels[0], 0.0, blurred)
+        Assert.assertArrayEquals(flat.pixels, blurred)
+    }
+
+    @Test
+    fun meanBlurMatchesBoxKernel() {
+        for (radius in listOf(1, 4)) {
+            val size = 2 * radius + 1
+            val box = IntArray(image.pixels.size)
+            convolveDirect(image, Kernel(size, size, FloatArray(size * size) { 1f }), 0.0, box)
+            val mean = Convolution.meanBlur(image, radius).pixels
+            for (i in box.indices) {
+                Assert.assertEquals(box[i].red().toDouble(), mean[i].red().toDouble(), 1.0)
+                Assert.assertEquals(box[i].blue().toDouble(), mean[i].blue().toDouble(), 1.0)
+            }
+        }
+    }
+
+    @Test
+    fun meanBlurWrapsRadiiLargerThanImage() {
+        val flat = FastImage(7, 5, IntArray(35) { rgb(10, 20, 30) })
+        Assert.assertArrayEquals(flat.pixels, Convolution.meanBlur(flat, 100).pixels)
+        Assert.assertArrayEquals(flat.pixels, Convolution.stackedGaussianBlur(flat, 12.0).pixels)
+    }
+
+    @Test
+    fun rescaledKernelsKeepTheirWeight() {
+        val box = Kernel(15, 15, FloatArray(15 * 15) { 1f / (15 * 15) }).rescale(0.25)
+        Assert.assertEquals(5, box.with)
+        Assert.assertEquals(1f, box.array.sum(), 1e-5f)
+        Assert.assertEquals(0f, Convolution.SOBEL_HORIZONTAL.rescale(0.5).array.sum(), 1e-5f)
+    }
+
+    @Test
+    fun downsampleAveragesBlocks() {
+        val small = FastImage(2, 2, intArrayOf(rgb(0, 0, 0), rgb(100, 0, 0), rgb(0, 0, 0), rgb(100, 0, 0))).downsample(2)
+        Assert.assertEquals(1, small.width)
+        Assert.assertEquals(50, small.pixels[0].red())
+    }
+
+    @Test
+    fun regionsMatchTheWholeImageOnEveryEngine() {
+        val region = java.awt.Rectangle(40, 3, 13, 9)
+        for (kernel in listOf(Convolution.GAUSSIAN3_BLUR, Convolution.BOX_BLUR, Kernel(17, 17, FloatArray(17 * 17) { (it % 5).toFloat() }))) {
+            val whole = Convolution(image).convolve(kernel)
+            val part = Convolution(image).convolve(kernel, region)
+            for (y in 0..image.height - 1) {
+                for (x in 0..image.width - 1) {
+                    val i = x + y * image.width
+                    Assert.assertEquals(if (region.contains(x, y)) whole.pixels[i] else 0, part.pixels[i])
+                }
+            }
+        }
+    }
+}
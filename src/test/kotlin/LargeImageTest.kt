@@ -0,0 +1,54 @@
+import io.metjka.vortex.precessing.*
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import java.util.Random
+
+class LargeImageTest {
+
+    val random = Random(17)
+    val image = FastImage(83, 59, IntArray(83 * 59) { random.nextInt() })
+    val scheduler = TileScheduler(2, 32, 16)
+
+    @After
+    fun closeScheduler() {
+        scheduler.close()
+    }
+
+    @Test
+    fun rowsSpreadOverChunks() {
+        val large = LargeImage.of(image, chunkBytes = 83 * 4 * 7)
+        Assert.assertEquals(7, large.chunkRows)
+        Assert.assertEquals(image.getARGB(5, 50), large.getARGB(5, 50))
+        Assert.assertArrayEquals(image.pixels, large.toFastImage().pixels)
+    }
+
+    @Test
+    fun readWrapsLikeCut() {
+        val large = LargeImage.of(image, chunkBytes = 83 * 4 * 5)
+        val corner = java.awt.Rectangle(78, 55, 10, 8)
+        Assert.assertArrayEquals(image.cut(corner, 3).pixels, large.read(corner, 3).pixels)
+    }
+
+    @Test
+    fun filtersRunTileByTile() {
+        val expected = Convolution(image).convolve(Convolution.KERNEL7).pixels
+        LargeImage.of(image, chunkBytes = 83 * 4 * 6).use { large ->
+            val blurred = large.filter(Convolution.KERNEL7.with / 2, scheduler) { Convolution(it).convolve(Convolution.KERNEL7) }
+            Assert.assertArrayEquals(expected, blurred.toFastImage().pixels)
+        }
+    }
+
+    @Test
+    fun mappedImagesLiveInTheirFile() {
+        val mapped = LargeImage.mapped(image.width, image.height)
+        val file = mapped.file!!
+        mapped.write(image, image.bounds())
+        val inverted = mapped.filter(0, scheduler) { InvertFilter(it).filter() }
+        Assert.assertEquals(image.width * image.height * 4L, file.length())
+        Assert.assertEquals(InvertFilter(image).filter().pixels.toList(), inverted.toFastImage().pixels.toList())
+        inverted.close()
+        mapped.close()
+        Assert.assertFalse(file.exists())
+    }
+}
@@ -0,0 +1,94 @@
+import com.google.gson.JsonParser
+import io.metjka.vortex.graph.*
+import io.metjka.vortex.precessing.BrightnessFilter
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.ui.Type
+import org.junit.Assert
+import org.junit.Test
+import java.io.StringWriter
+import java.lang.management.ManagementFactory
+import java.util.concurrent.TimeUnit
+import javax.management.ObjectName
+
+class MetricsTest {
+
+    val graph = Graph()
+    val metrics = MetricsRegistry()
+    val evaluator = GraphEvaluator(graph, cache = ResultCache(), metrics = metrics)
+
+    val source = ValueNode<FastImage>(Type.IMAGE, FastImage(32, 16))
+    val brighten = ImageNode("Brightness", listOf(10)) { BrightnessFilter(it, 10).filter() }
+    val slow = ImageNode("Slow") {
+        Thread.sleep(20)
+        it
+    }
+
+    init {
+        listOf(source, brighten, slow).forEach { graph.add(it) }
+        graph.connect(source.output, brighten.input)
+        graph.connect(brighten.output, slow.input)
+    }
+
+    @Test
+    fun everyRunIsMeasured() {
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+
+        val brightness = metrics.stats(brighten)!!
+        Assert.assertEquals(2, brightness.runs)
+        Assert.assertEquals(1, brightness.misses)
+        Assert.assertEquals(1, brightness.hits)
+        Assert.assertEquals(2 * 512L, brightness.inputPixels)
+        Assert.assertEquals(2 * 512L, brightness.outputPixels)
+
+        val sleeping = metrics.stats(slow)!!
+        Assert.assertEquals(0, sleeping.hits + sleeping.misses)
+        Assert.assertTrue(sleeping.wallNanos >= 2 * 20_000_000L)
+        Assert.assertTrue(sleeping.cpuNanos < sleeping.wallNanos)
+        Assert.assertSame(slow, metrics.stats().first().node)
+        Assert.assertEquals(2, metrics.passes)
+        Assert.assertEquals(6, metrics.evaluations)
+    }
+
+    @Test
+    fun forgottenNodesLeaveTheTimeline() {
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        metrics.forget(brighten)
+
+        Assert.assertNull(metrics.stats(brighten))
+        Assert.assertTrue(metrics.runs().none { it.node === brighten || brighten in it.upstream })
+        Assert.assertTrue(metrics.stats().none { it.last?.upstream?.contains(brighten) == true })
+        Assert.assertEquals(listOf(source), metrics.runs().map { it.node })
+    }
+
+    @Test
+    fun traceHighlightsTheCriticalPath() {
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        Assert.assertEquals(listOf(source, brighten, slow), metrics.criticalPath(1).map { it.node })
+
+        val writer = StringWriter()
+        metrics.writeTrace(writer)
+        val events = JsonParser().parse(writer.toString()).asJsonObject.getAsJsonArray("traceEvents").map { it.asJsonObject }
+        val nodes = events.filter { it.has("cat") && it.get("cat").asString == "node" }
+        Assert.assertEquals(listOf("Value", "Brightness", "Slow"), nodes.map { it.get("name").asString })
+        Assert.assertTrue(nodes.all { it.get("cname").asString == "terrible" })
+        Assert.assertEquals(1, events.count { it.has("cat") && it.get("cat").asString == "pass" })
+        Assert.assertTrue(nodes.last().get("dur").asDouble >= 20_000)
+    }
+
+    @Test
+    fun registryIsPublishedOverJmx() {
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        metrics.register()
+        try {
+            val server = ManagementFactory.getPlatformMBeanServer()
+            val name = ObjectName(MetricsRegistry.OBJECT_NAME)
+            Assert.assertEquals(3L, server.getAttribute(name, "Evaluations"))
+            Assert.assertEquals(3, (server.getAttribute(name, "Nodes") as Array<*>).size)
+            server.invoke(name, "reset", emptyArray(), emptyArray())
+            Assert.assertEquals(0L, server.getAttribute(name, "Evaluations"))
+        } finally {
+            metrics.unregister()
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import io.metjka.vortex.precessing.*
+import org.junit.Assert
+import org.junit.Test
+import java.util.Random
+
+class PipelineTest {
+
+    val random = Random(11)
+    val image = FastImage(70, 40, IntArray(70 * 40) { random.nextInt() })
+
+    @Test
+    fun fusedChainMatchesFilterByFilter() {
+        val expected = SepiaFilter(ContrastFilter(GrayFilter(BrightnessFilter(image, -30).filter()).filter(), 15).filter()).filter()
+
+        val pipeline = Pipeline.Builder()
+                .pixels(PointOp.brightness(-30))
+                .pixels(GrayOp)
+                .pixels(PointOp.contrast(15))
+                .pixels(SepiaOp)
+                .build()
+
+        Assert.assertEquals(1, pipeline.compiled.size)
+        Assert.assertArrayEquals(expected.pixels, pipeline.run(image).pixels)
+    }
+
+    @Test
+    fun framesOnlyAtNeighbourhoodOpsAndTaps() {
+        var tapped: FastImage? = null
+        val pipeline = Pipeline.Builder()
+                .pixels(PointOp.brightness(10))
+                .pixels(PointOp.gamma(2.0))
+                .convolve(Convolution.GAUSSIAN3_BLUR)
+                .pixels(InvertFilter(image).pixelOp)
+                .tap { tapped = it }
+                .pixels(GrayOp)
+                .build()
+
+        Assert.assertEquals(5, pipeline.compiled.size)
+        val result = pipeline.run(image)
+
+        val expectedTap = InvertFilter(Convolution(GammaFilter(BrightnessFilter(image, 10).filter(), 2.0).filter())
+                .convolve(Convolution.GAUSSIAN3_BLUR)).filter()
+        Assert.assertArrayEquals(expectedTap.pixels, tapped!!.pixels)
+        Assert.assertArrayEquals(GrayFilter(expectedTap).filter().pixels, result.pixels)
+    }
+
+}
@@ -0,0 +1,57 @@
+import io.metjka.vortex.precessing.*
+import org.junit.Assert
+import org.junit.Test
+import java.util.Random
+
+class PointOpTest {
+
+    val random = Random(7)
+    val image = FastImage(64, 48, IntArray(64 * 48) { random.nextInt() })
+
+    // the per-pixel formulas the filters used before they were baked into tables
+
+    fun brightness(argb: Int, value: Int): Int =
+            rgb((argb.red() + value).clamp(), (argb.green() + value).clamp(), (argb.blue() + value).clamp())
+
+    fun contrast(argb: Int, value: Int): Int {
+        val contrast = Math.pow((100 + value).toDouble() / 100, 2.0)
+        val channel = { c: Int -> ((((c / 255.0) - 0.5) * contrast + 0.5) * 255.0).toInt().clamp() }
+        return rgb(channel(argb.red()), channel(argb.green()), channel(argb.blue()))
+    }
+
+    fun gamma(argb: Int, gamma: Double): Int {
+        val gammaP = 1 / (5 - gamma)
+        val channel = { c: Int -> (255 * Math.pow(c.toDouble() / 255.0, gammaP)).toInt().clamp() }
+        return rgb(channel(channel(argb.red())), channel(channel(argb.green())), channel(channel(argb.blue())))
+    }
+
+    fun invert(argb: Int): Int = rgb(255 - argb.red(), 255 - argb.green(), 255 - argb.blue())
+
+    @Test
+    fun tablesMatchTheFormulas() {
+        Assert.assertArrayEquals(image.pixels.map { brightness(it, -30) }.toIntArray(),
+                PointOp.brightness(-30).filter(image).pixels)
+        Assert.assertArrayEquals(image.pixels.map { contrast(it, 40) }.toIntArray(), PointOp.contrast(40).filter(image).pixels)
+        Assert.assertArrayEquals(image.pixels.map { gamma(it, 2.0) }.toIntArray(), PointOp.gamma(2.0).filter(image).pixels)
+        Assert.assertArrayEquals(image.pixels.map { invert(it) }.toIntArray(), PointOp.INVERT.filter(image).pixels)
+    }
+
+    @Test
+    fun composedChainMatchesSeparatePasses() {
+        val separate = image.pixels.map { gamma(contrast(brightness(it, 25), 40), 2.0) }.toIntArray()
+
+        val composed = PointOp.compose(listOf(
+                PointOp.brightness(25),
+                PointOp.contrast(40),
+                PointOp.gamma(2.0)
+        )).filter(image)
+
+        Assert.assertArrayEquals(separate, composed.pixels)
+    }
+
+    @Test
+    fun invertTwiceIsIdentity() {
+        Assert.assertTrue(PointOp.INVERT.andThen(PointOp.INVERT).isIdentity())
+    }
+
+}
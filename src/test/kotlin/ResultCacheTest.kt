@@ -0,0 +1,164 @@
+import io.metjka.vortex.graph.*
+import io.metjka.vortex.precessing.BrightnessFilter
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.HueSaturationValueFilter
+import io.metjka.vortex.ui.Type
+import org.junit.Assert
+import org.junit.Test
+import java.nio.file.Files
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ResultCacheTest {
+
+    val image = FastImage(16, 16, IntArray(256) { it * 0x010101 })
+
+    @Test
+    fun flippingAParameterBackHitsTheCache() {
+        val graph = Graph()
+        val cache = ResultCache()
+        val evaluator = GraphEvaluator(graph, cache = cache)
+        val runs = AtomicInteger()
+
+        val source = ValueNode<FastImage>(Type.IMAGE, image)
+        var brightness = 10
+        fun brighten() = ImageNode("Brightness", listOf(brightness)) {
+            runs.incrementAndGet()
+            BrightnessFilter(it, brightness).filter()
+        }
+        var filter = brighten()
+        graph.add(source)
+        graph.add(filter)
+        graph.connect(source.output, filter.input)
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        val first = filter.output.value
+
+        for (value in listOf(20, 10)) {
+            graph.remove(filter)
+            brightness = value
+            filter = brighten()
+            graph.add(filter)
+            graph.connect(source.output, filter.input)
+            evaluator.evaluate(filter).get(5, TimeUnit.SECONDS)
+        }
+
+        Assert.assertEquals(2, runs.get())
+        Assert.assertSame(first, filter.output.value)
+        Assert.assertEquals(1, cache.stats().hits)
+    }
+
+    @Test
+    fun parametersWithEqualHashCodesDontShareFrames() {
+        val hue = Recipe("HueSaturationValue", mapOf("hue" to 1, "saturation" to 0, "value" to 0))
+        val saturation = Recipe("HueSaturationValue", mapOf("hue" to 0, "saturation" to 1, "value" to 0))
+        Assert.assertEquals(hue.hashCode(), saturation.hashCode())
+
+        val graph = Graph()
+        val evaluator = GraphEvaluator(graph, cache = ResultCache())
+        val source = ValueNode<FastImage>(Type.IMAGE, image)
+        var filter = NodeTypes.create(hue) as ImageNode
+        val brightness = NodeTypes.create("Brightness", "value" to 10) as ImageNode
+        listOf(source, filter, brightness).forEach { graph.add(it) }
+        graph.connect(source.output, filter.input)
+        graph.connect(filter.output, brightness.input)
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        val first = brightness.output.value!!
+
+        graph.remove(filter)
+        filter = NodeTypes.create(saturation) as ImageNode
+        graph.add(filter)
+        graph.connect(source.output, filter.input)
+        graph.connect(filter.output, brightness.input)
+        evaluator.evaluate(filter).get(5, TimeUnit.SECONDS)
+
+        Assert.assertNotSame(first, brightness.output.value)
+        Assert.assertNotNull(filter.output.digest)
+        val expected = BrightnessFilter(HueSaturationValueFilter(image).filter(0, 1, 0), 10).filter()
+        Assert.assertArrayEquals(expected.pixels, brightness.output.value!!.pixels)
+    }
+
+    @Test
+    fun everyNewImageIsComputed() {
+        val graph = Graph()
+        val evaluator = GraphEvaluator(graph, cache = ResultCache(), levels = GraphEvaluator.PROGRESSIVE)
+        val source = ValueNode<FastImage>(Type.IMAGE, image)
+        val brightness = NodeTypes.create("Brightness", "value" to 10) as ImageNode
+        graph.add(source)
+        graph.add(brightness)
+        graph.connect(source.output, brightness.input)
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+
+        val other = FastImage(16, 16, IntArray(256) { 0x808080 - it })
+        source.value = other
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        Assert.assertArrayEquals(BrightnessFilter(other, 10).filter().pixels, brightness.output.value!!.pixels)
+
+        source.value = image
+        evaluator.evaluate(source).get(5, TimeUnit.SECONDS)
+        Assert.assertArrayEquals(BrightnessFilter(image, 10).filter().pixels, brightness.output.value!!.pixels)
+    }
+
+    @Test
+    fun evictedImagesComeBackFromDisk() {
+        val directory = Files.createTempDirectory("vortex-cache").toFile()
+        val cache = ResultCache(budgetBytes = 1500, spillDirectory = directory, spillExecutor = Executor { it.run() })
+        val first = ResultCache.Key("first", emptyList(), emptyList())
+        val second = ResultCache.Key("second", emptyList(), emptyList())
+
+        cache.put(first, listOf(image))
+        cache.put(second, listOf(image))
+        Assert.assertEquals(1, cache.stats().evictions)
+        Assert.assertEquals(1, cache.stats().spills)
+
+        val restored = cache.get(first)!![0] as FastImage
+        Assert.assertArrayEquals(image.pixels, restored.pixels)
+        Assert.assertEquals(1, cache.stats().diskHits)
+        cache.clear()
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun spilledFramesStayWithinTheirBudget() {
+        val directory = Files.createTempDirectory("vortex-cache").toFile()
+        val cache = ResultCache(budgetBytes = 1500, spillDirectory = directory, spillBudgetBytes = 1500,
+                spillExecutor = Executor { it.run() })
+        val keys = (1..3).map { ResultCache.Key("key $it", emptyList(), emptyList()) }
+
+        keys.forEach { cache.put(it, listOf(image)) }
+        Assert.assertEquals(2, cache.stats().spills)
+        Assert.assertEquals(ResultCache.sizeOf(image), cache.stats().spilledBytes)
+        Assert.assertEquals(1, directory.listFiles().size)
+
+        // the older spill made room for the newer one
+        Assert.assertNull(cache.get(keys[0]))
+        Assert.assertNotNull(cache.get(keys[1]))
+        Assert.assertEquals(1, cache.stats().diskHits)
+        cache.clear()
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun framesOnTheirWayToDiskAreServedFromMemory() {
+        val directory = Files.createTempDirectory("vortex-cache").toFile()
+        val queued = mutableListOf<Runnable>()
+        val cache = ResultCache(budgetBytes = 1500, spillDirectory = directory, spillExecutor = Executor { queued.add(it) })
+        val first = ResultCache.Key("first", emptyList(), emptyList())
+        val second = ResultCache.Key("second", emptyList(), emptyList())
+
+        cache.put(first, listOf(image))
+        cache.put(second, listOf(image))
+        Assert.assertEquals(1, queued.size)
+        Assert.assertSame(image, cache.get(first)!![0])
+        Assert.assertEquals(0, cache.stats().diskHits)
+
+        // that hit evicted the second entry in turn; the first one's write is stale by now and leaves nothing behind
+        queued.toList().forEach { it.run() }
+        Assert.assertEquals(1, cache.stats().spills)
+        Assert.assertEquals(1, directory.listFiles().size)
+        Assert.assertNotNull(cache.get(second))
+        Assert.assertEquals(1, cache.stats().diskHits)
+        cache.clear()
+        directory.deleteRecursively()
+    }
+}
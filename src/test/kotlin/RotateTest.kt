@@ -1,3 +1,6 @@
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.precessing.ImageRotation
+import io.metjka.vortex.precessing.TileScheduler
 import org.junit.Assert
 import org.junit.Test
 
@@ -7,6 +10,10 @@ class RotateTest {
 
     val boxBlur: FloatArray = floatArrayOf(1F,2F,3F,4F)
 
+    val image = FastImage(3, 2, intArrayOf(
+            1, 2, 3,
+            4, 5, 6))
+
     @Test
     fun flip(){
         val reversed: List<Float> = boxBlur.reversed()
@@ -15,7 +22,42 @@ class RotateTest {
 
     @Test
     fun rotateClockWise() {
+        Assert.assertArrayEquals(intArrayOf(3, 6, 2, 5, 1, 4), ImageRotation(image).rotate(90).pixels)
+        Assert.assertArrayEquals(intArrayOf(4, 1, 5, 2, 6, 3), ImageRotation(image).rotate(-90).pixels)
+        Assert.assertArrayEquals(intArrayOf(6, 5, 4, 3, 2, 1), ImageRotation(image).rotate(180).pixels)
+    }
+
+    @Test
+    fun blockedTransposeMatchesAcrossTiles() {
+        val big = FastImage(77, 45, IntArray(77 * 45) { it })
+        TileScheduler(2, 16, 16).use { scheduler ->
+            val tiled = ImageRotation(big, scheduler)
+            for (angle in listOf(90, -90)) {
+                Assert.assertArrayEquals(ImageRotation(big).rotate(angle).pixels, tiled.rotate(angle).pixels)
+            }
+        }
+        Assert.assertArrayEquals(ImageRotation(big).rotate(90).pixels,
+                ImageRotation(big).rotate(90.0, ImageRotation.Sampling.NEAREST).pixels)
+    }
 
+    @Test
+    fun mirrors() {
+        Assert.assertArrayEquals(intArrayOf(3, 2, 1, 6, 5, 4), ImageRotation(image).mirrorHorizontal().pixels)
+        Assert.assertArrayEquals(intArrayOf(4, 5, 6, 1, 2, 3), ImageRotation(image).mirrorVertical().pixels)
+
+        val copy = FastImage(3, 2, image.pixels.copyOf())
+        ImageRotation(copy).rotate180(inPlace = true)
+        Assert.assertArrayEquals(intArrayOf(6, 5, 4, 3, 2, 1), copy.pixels)
+    }
+
+    @Test
+    fun arbitraryAngleGrowsCanvas() {
+        val square = FastImage(10, 10, IntArray(100) { -1 })
+        val turned = ImageRotation(square).rotate(45)
+        Assert.assertEquals(15, turned.width)
+        Assert.assertEquals(15, turned.height)
+        Assert.assertEquals(-1, turned.getARGB(7, 7))
+        Assert.assertEquals(0, turned.getARGB(0, 0))
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+import io.metjka.vortex.graph.Graph
+import io.metjka.vortex.graph.GraphBundle
+import io.metjka.vortex.graph.ImageNode
+import io.metjka.vortex.graph.NodeTypes
+import io.metjka.vortex.graph.SinkNode
+import io.metjka.vortex.graph.ValueNode
+import io.metjka.vortex.precessing.FastImage
+import io.metjka.vortex.ui.serialize.BinaryFormat
+import io.metjka.vortex.ui.serialize.Importer
+import io.metjka.vortex.ui.serialize.Thumbnails
+import io.metjka.vortex.ui.serialize.VortFormat
+import org.junit.Assert
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+class SerializationTest {
+
+    val kernel = FloatArray(9) { 1 / 9f }
+    val table = IntArray(256) { 255 - it }
+
+    fun bundle(graph: Graph): Map<String, Any?> =
+            GraphBundle.toBundle(graph) + mapOf(VortFormat.VERSION_NUMBER_LABEL to VortFormat.VERSION)
+
+    fun filters(): Graph {
+        val graph = Graph()
+        val input = NodeTypes.create("Input")
+        val blur = NodeTypes.create("Convolution", "width" to 3, "height" to 3, "kernel" to kernel)
+        val curve = NodeTypes.create("Curve", "table" to table)
+        val number = NodeTypes.create("Number", "value" to 2.5)
+        listOf(input, blur, curve, number).forEach { graph.add(it) }
+        graph.connect((input as ValueNode<*>).output, blur.inputs.first())
+        graph.connect(blur.outputs.first(), (curve as ImageNode).input)
+        return graph
+    }
+
+    /**
+     * Input, [size] - 2 filters in a row and an output.
+     */
+    fun chain(size: Int): Graph {
+        val graph = Graph()
+        val input = NodeTypes.create("Input") as ValueNode<*>
+        graph.add(input)
+        var last = input.output
+        for (i in 1..size - 2) {
+            val node = (if (i % 2 == 0) NodeTypes.create("Curve", "table" to table)
+            else NodeTypes.create("Brightness", "value" to i % 50)) as ImageNode
+            graph.add(node)
+            graph.connect(last, node.input)
+            last = node.output
+        }
+        val output = NodeTypes.create("Output") as SinkNode<*>
+        graph.add(output)
+        graph.connect(last, output.input)
+        return graph
+    }
+
+    fun binary(bundle: Map<String, Any?>, version: Int = VortFormat.VERSION): ByteArray =
+            ByteArrayOutputStream().also { BinaryFormat.write(bundle, it, version) }.toByteArray()
+
+    fun json(bundle: Map<String, Any?>): ByteArray = VortFormat.gson.toJson(bundle).toByteArray(Charsets.UTF_8)
+
+    @Test
+    fun binaryKeepsKernelsAndTables() {
+        val loaded = Importer.import(ByteArrayInputStream(binary(bundle(filters()))))
+        val (graph, nodes) = GraphBundle.fromBundle(loaded)
+
+        Assert.assertEquals(2, graph.edges.size)
+        val recipes = nodes.values.map { it.recipe!! }
+        Assert.assertEquals(filters().nodes.map { NodeTypes.recipe(it) }, recipes)
+        Assert.assertArrayEquals(kernel, recipes[1].parameters["kernel"] as FloatArray, 0f)
+        Assert.assertArrayEquals(table, recipes[2].parameters["table"] as IntArray)
+        Assert.assertEquals(2.5, (nodes[3] as ValueNode<*>).value)
+    }
+
+    @Test
+    fun jsonReadsTheSame() {
+        val loaded = Importer.import(ByteArrayInputStream(json(bundle(filters()))))
+        val (graph, nodes) = GraphBundle.fromBundle(loaded)
+
+        Assert.assertEquals(2, graph.edges.size)
+        Assert.assertArrayEquals(kernel, nodes[1]!!.recipe!!.floats("kernel"), 0f)
+        Assert.assertArrayEquals(table, nodes[2]!!.recipe!!.ints("table"))
+    }
+
+    @Test
+    fun editedValuesAreSaved() {
+        val graph = filters()
+        @Suppress("UNCHECKED_CAST")
+        (graph.nodes[3] as ValueNode<Number>).value = 7
+        val loaded = BinaryFormat.read(ByteArrayInputStream(binary(bundle(graph)))).second
+        Assert.assertEquals(7.0, (GraphBundle.fromBundle(loaded).second[3] as ValueNode<*>).value)
+    }
+
+    @Test
+    fun newerVersionsAreRefused() {
+        try {
+            Importer.import(ByteArrayInputStream(binary(bundle(filters()), version = 99)))
+            Assert.fail()
+        } catch (e: IOException) {
+        }
+        try {
+            Importer.import(ByteArrayInputStream(json(bundle(filters()) + mapOf(VortFormat.VERSION_NUMBER_LABEL to 99))))
+            Assert.fail()
+        } catch (e: IOException) {
+        }
+    }
+
+    @Test
+    fun thumbnailsAreSmall() {
+        val (factor, png) = Thumbnails.encode(FastImage(1024, 512))
+        val thumbnail = Thumbnails.decode(png)!!
+        Assert.assertEquals(8, factor)
+        Assert.assertEquals(128, thumbnail.width)
+        Assert.assertEquals(64, thumbnail.height)
+
+        val bundle = mapOf<String, Any?>("thumbnail" to png)
+        Assert.assertTrue(png.contentEquals(BinaryFormat.read(ByteArrayInputStream(binary(bundle))).second["thumbnail"] as ByteArray))
+        Assert.assertNotNull(Thumbnails.decode(Importer.import(ByteArrayInputStream(json(bundle + mapOf(
+                VortFormat.VERSION_NUMBER_LABEL to VortFormat.VERSION))))["thumbnail"]))
+    }
+
+    @Test
+    fun thousandsOfNodesLoadFromACompactFile() {
+        val bytes = binary(bundle(chain(2000)))
+        Assert.assertTrue(bytes.size < json(bundle(chain(2000))).size / 4)
+
+        // how long this takes is measured by LoadBenchmark
+        val (graph, _) = GraphBundle.fromBundle(Importer.import(ByteArrayInputStream(bytes)))
+        Assert.assertEquals(2000, graph.nodes.size)
+        Assert.assertEquals(1999, graph.edges.size)
+    }
+}
@@ -0,0 +1,36 @@
+import io.metjka.vortex.precessing.*
+import org.junit.Assert
+import org.junit.Test
+import java.util.Random
+
+class SobelFilterTest {
+
+    @Test
+    fun keepsNegativeGradients() {
+        // dark to bright and back: the falling edge used to be clamped away
+        val image = generateImage(8, 3) { x, _ -> if (x in 2..5) rgb(200, 200, 200) else rgb(0, 0, 0) }
+        val magnitude = SobelFilter(image).filter().blockingFirst()
+        Assert.assertEquals(255, magnitude.getARGB(1, 1).red())
+        Assert.assertEquals(255, magnitude.getARGB(6, 1).red())
+        Assert.assertEquals(0, magnitude.getARGB(3, 1).red())
+    }
+
+    @Test
+    fun directionFollowsGradient() {
+        val ramp = generateImage(9, 9) { x, _ -> rgb(x * 10, x * 10, x * 10) }
+        val gradient = SobelFilter(ramp).gradient()
+        Assert.assertEquals(0.0, gradient.direction!![4 + 4 * 9].toDouble(), 1e-6)
+        Assert.assertNull(SobelFilter(ramp).gradient(false).direction)
+    }
+
+    @Test
+    fun tiledMatchesSingleThreaded() {
+        val random = Random(2)
+        val image = FastImage(70, 50, IntArray(70 * 50) { random.nextInt() })
+        TileScheduler(2, 16, 16).use { scheduler ->
+            Assert.assertArrayEquals(SobelFilter(image).gradient().magnitude.pixels,
+                    SobelFilter(image, scheduler).gradient().magnitude.pixels)
+        }
+    }
+
+}
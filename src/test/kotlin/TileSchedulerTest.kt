@@ -0,0 +1,53 @@
+import io.metjka.vortex.precessing.*
+import org.junit.After
+import org.junit.Assert
+import org.junit.Test
+import java.util.Random
+
+class TileSchedulerTest {
+
+    val random = Random(11)
+    val image = FastImage(101, 67, IntArray(101 * 67) { random.nextInt() })
+    val scheduler = TileScheduler(4, 32, 16)
+
+    @After
+    fun closeScheduler() {
+        scheduler.close()
+    }
+
+    @Test
+    fun tilesCoverImageOnce() {
+        val covered = IntArray(image.pixels.size)
+        for (tile in scheduler.tiles(image.width, image.height)) {
+            for (y in tile.y..tile.y + tile.height - 1) {
+                for (x in tile.x..tile.x + tile.width - 1) {
+                    covered[x + y * image.width]++
+                }
+            }
+        }
+        Assert.assertTrue(covered.all { it == 1 })
+    }
+
+    @Test
+    fun tiledConvolutionMatchesSingleThreaded() {
+        for (kernel in listOf(Convolution.GAUSSIAN3_BLUR, Convolution.LAPLACE, Convolution.KERNEL7)) {
+            Assert.assertArrayEquals(Convolution(image).convolve(kernel).pixels,
+                    scheduler.convolve(image, kernel).pixels)
+            Assert.assertArrayEquals(Convolution(image, fftThreshold = 1).convolve(kernel).pixels,
+                    scheduler.convolve(image, kernel, fftThreshold = 1).pixels)
+        }
+    }
+
+    @Test
+    fun haloKeepsNeighbourhoodFiltersExact() {
+        val expected = Convolution(image).convolve(Convolution.GAUSSIAN5_BLUR).pixels
+        val tiled = scheduler.filter(image, 2) { Convolution(it).convolve(Convolution.GAUSSIAN5_BLUR) }
+        Assert.assertArrayEquals(expected, tiled.pixels)
+    }
+
+    @Test
+    fun pixelOpsRunPerTile() {
+        Assert.assertArrayEquals(SepiaFilter(image).filter().pixels, scheduler.filter(SepiaFilter(image)).pixels)
+    }
+
+}